@@ -0,0 +1,133 @@
+package com.baseflow.permissionhandler;
+
+import android.Manifest;
+import android.app.Activity;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.content.pm.ApplicationInfo;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.os.Build;
+
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.RETURNS_SELF;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Activity stand-in for the benchmarks and the load harness. The calls that are binder
+ * transactions on a device, checking a permission, asking for a rationale and reading the
+ * package info, spin for the configured latency before they answer.
+ *
+ * <p>The application requests the camera permission, which is denied until
+ * {@link #setPermissionResult(int)} says otherwise.
+ */
+class BenchmarkActivity extends Activity {
+    static final String PACKAGE_NAME = "com.baseflow.permissionhandler.benchmark";
+    static final String[] REQUESTED_PERMISSIONS = {Manifest.permission.CAMERA};
+
+    private final long binderLatencyNanos;
+    private final PackageManager packageManager;
+    private final SharedPreferences preferences;
+
+    private volatile int permissionResult = PackageManager.PERMISSION_DENIED;
+    private volatile boolean finishing;
+
+    BenchmarkActivity(long binderLatencyMicros) {
+        this.binderLatencyNanos = binderLatencyMicros * 1000;
+        this.packageManager = mockPackageManager();
+        this.preferences = mockPreferences();
+    }
+
+    /**
+     * Resets the state the plugin shares across engines, so every run starts from a device at
+     * {@code Build.VERSION_CODES.Q} on which no permission was requested before.
+     */
+    static void resetSharedState() {
+        ManifestNameRegistry.setSdkVersion(Build.VERSION_CODES.Q);
+        RequestHistoryStore.reset();
+    }
+
+    void setPermissionResult(int permissionResult) {
+        this.permissionResult = permissionResult;
+    }
+
+    void setFinishing(boolean finishing) {
+        this.finishing = finishing;
+    }
+
+    @Override
+    public String getPackageName() {
+        return PACKAGE_NAME;
+    }
+
+    @Override
+    public PackageManager getPackageManager() {
+        return packageManager;
+    }
+
+    @Override
+    public Context getApplicationContext() {
+        return this;
+    }
+
+    @Override
+    public SharedPreferences getSharedPreferences(String name, int mode) {
+        return preferences;
+    }
+
+    @Override
+    public int checkPermission(String permission, int pid, int uid) {
+        simulateBinderCall();
+        return permissionResult;
+    }
+
+    @Override
+    public boolean shouldShowRequestPermissionRationale(String permission) {
+        simulateBinderCall();
+        return false;
+    }
+
+    @Override
+    public boolean isFinishing() {
+        return finishing;
+    }
+
+    private void simulateBinderCall() {
+        if (binderLatencyNanos == 0) {
+            return;
+        }
+
+        // Spin rather than sleep, sleeping is far coarser than a binder transaction.
+        final long end = System.nanoTime() + binderLatencyNanos;
+        while (System.nanoTime() < end) {
+            // Busy wait.
+        }
+    }
+
+    private PackageManager mockPackageManager() {
+        final ApplicationInfo applicationInfo = new ApplicationInfo();
+        applicationInfo.targetSdkVersion = Build.VERSION_CODES.Q;
+        final PackageInfo packageInfo = new PackageInfo();
+        packageInfo.requestedPermissions = REQUESTED_PERMISSIONS;
+        packageInfo.applicationInfo = applicationInfo;
+
+        final PackageManager packageManager = mock(PackageManager.class);
+        try {
+            when(packageManager.getPackageInfo(anyString(), anyInt())).thenAnswer(invocation -> {
+                simulateBinderCall();
+                return packageInfo;
+            });
+        } catch (PackageManager.NameNotFoundException e) {
+            throw new IllegalStateException(e);
+        }
+        return packageManager;
+    }
+
+    private static SharedPreferences mockPreferences() {
+        final SharedPreferences preferences = mock(SharedPreferences.class);
+        when(preferences.edit()).thenReturn(mock(SharedPreferences.Editor.class, RETURNS_SELF));
+        return preferences;
+    }
+}
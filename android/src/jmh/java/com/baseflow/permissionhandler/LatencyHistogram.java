@@ -0,0 +1,88 @@
+package com.baseflow.permissionhandler;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock free latency histogram of the load harness. Every power of two range of nanoseconds is
+ * split into 32 buckets, so a percentile is reported at most about 3% above the actual latency.
+ * Unlike the power of two histograms of {@link PluginDiagnostics} that is fine enough for the
+ * tail percentiles.
+ */
+final class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKET_COUNT = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+
+    void record(long elapsedNanos) {
+        buckets.incrementAndGet(bucketOf(Math.max(elapsedNanos, 0)));
+    }
+
+    void addTo(LatencyHistogram histogram) {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            final long count = buckets.get(i);
+            if (count != 0) {
+                histogram.buckets.addAndGet(i, count);
+            }
+        }
+    }
+
+    long count() {
+        long count = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            count += buckets.get(i);
+        }
+        return count;
+    }
+
+    /**
+     * Returns the latency in nanoseconds that the supplied fraction of the recorded calls did not
+     * exceed, {@code 0} when nothing was recorded.
+     */
+    long percentile(double fraction) {
+        final long count = count();
+        if (count == 0) {
+            return 0;
+        }
+
+        final long rank = Math.max(1, (long) Math.ceil(fraction * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += buckets.get(i);
+            if (seen >= rank) {
+                return highestValueOf(i);
+            }
+        }
+        return highestValueOf(BUCKET_COUNT - 1);
+    }
+
+    long max() {
+        for (int i = BUCKET_COUNT - 1; i >= 0; i--) {
+            if (buckets.get(i) != 0) {
+                return highestValueOf(i);
+            }
+        }
+        return 0;
+    }
+
+    private static int bucketOf(long nanos) {
+        if (nanos < SUB_BUCKET_COUNT) {
+            return (int) nanos;
+        }
+
+        final int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+        final int subBucket = (int) (nanos >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKET_COUNT - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT + subBucket;
+    }
+
+    private static long highestValueOf(int bucket) {
+        if (bucket < SUB_BUCKET_COUNT) {
+            return bucket;
+        }
+
+        final int shift = bucket / SUB_BUCKET_COUNT - 1;
+        final long lowest = (long) (SUB_BUCKET_COUNT + bucket % SUB_BUCKET_COUNT) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+}
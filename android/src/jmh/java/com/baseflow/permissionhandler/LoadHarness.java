@@ -0,0 +1,699 @@
+package com.baseflow.permissionhandler;
+
+import android.app.Activity;
+import android.content.Intent;
+import android.content.pm.PackageManager;
+
+import androidx.core.app.ActivityCompat;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.lang.ref.WeakReference;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.flutter.plugin.common.MethodCall;
+import io.flutter.plugin.common.MethodChannel;
+
+/**
+ * Host JVM load and soak harness. Several engines share one {@link PermissionManager}, background
+ * executor and platform thread, as the engines of an add to app deployment share the
+ * {@link PermissionCoordinator}. Each engine has its own {@link MethodCallHandlerImpl}, activity
+ * and {@link PermissionManager.RequestPermissionsListener}. Caller threads, bound to an engine
+ * each, make a weighted mix of method calls back to back and wait for every reply.
+ *
+ * <p>System dialogs are intercepted through {@link ActivityCompat.PermissionCompatDelegate} and
+ * answered by a simulated user, who denies them after a delay. A share of the dialogs is answered
+ * only after the request deadline, so the deadline and the late result paths are exercised as
+ * well. Activities are finished and replaced periodically, an activity the plugin holds on to
+ * after that shows up as retained in the report.
+ *
+ * <p>The report is a JSON object with the throughput, the p50, p99 and p999 latencies and the
+ * error rates, in total and per method, samples of the heap over time and the options of the
+ * run. It is written to {@code --output} or to standard output. Options are passed as
+ * {@code --name=value}, see {@link Options} for their defaults.
+ */
+public final class LoadHarness {
+    private final Options options;
+    private final PlatformLooper looper = new PlatformLooper();
+    private final ExecutorService backgroundExecutor = Executors.newSingleThreadExecutor((Runnable runnable) -> {
+        final Thread thread = new Thread(runnable, "permission_handler");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final PermissionManager permissionManager = new PermissionManager(looper);
+    private final AppSettingsManager appSettingsManager = new AppSettingsManager();
+    private final ServiceManager serviceManager = new ServiceManager();
+    private final PermissionSnapshotStore snapshotStore = new PermissionSnapshotStore();
+    private final BenchmarkActivity applicationContext;
+    private final List<Engine> engines = new ArrayList<>();
+    private final List<CallMix.Method> methods;
+    private final LatencyHistogram latencies = new LatencyHistogram();
+
+    // Only used on the looper thread.
+    private final Map<Activity, Engine> enginesByActivity = new IdentityHashMap<>();
+    private final List<WeakReference<Activity>> retiredActivities = new ArrayList<>();
+    private final Random userRandom;
+    private int nextEngineToRecreate;
+
+    private final AtomicLong dialogsShown = new AtomicLong();
+    private final AtomicLong dialogsAnswered = new AtomicLong();
+    private final AtomicLong dialogsAnsweredLate = new AtomicLong();
+    private final AtomicLong resultsRejected = new AtomicLong();
+    private final AtomicLong resultsDropped = new AtomicLong();
+
+    private volatile boolean running;
+    private volatile boolean measuring;
+
+    private LoadHarness(Options options) {
+        this.options = options;
+        this.applicationContext = new BenchmarkActivity(options.binderLatencyMicros);
+        this.methods = CallMix.parse(options.mix);
+        this.userRandom = new Random(options.seed);
+        permissionManager.setRequestDeadlineMillis(options.requestDeadlineMillis);
+    }
+
+    public static void main(String[] args) throws Exception {
+        final Options options = Options.parse(args);
+        final Map<String, Object> report = new LoadHarness(options).run();
+
+        final String json = Json.write(report);
+        if (options.output == null) {
+            System.out.println(json);
+            return;
+        }
+
+        final File output = new File(options.output);
+        final File directory = output.getAbsoluteFile().getParentFile();
+        if (directory != null && !directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create " + directory);
+        }
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(output), StandardCharsets.UTF_8)) {
+            writer.write(json);
+            writer.write('\n');
+        }
+    }
+
+    private Map<String, Object> run() throws Exception {
+        BenchmarkActivity.resetSharedState();
+        ActivityCompat.setPermissionCompatDelegate(new SimulatedUser());
+        try {
+            onLooper(() -> {
+                for (int i = 0; i < options.engines; i++) {
+                    final Engine engine = new Engine();
+                    engine.attach(new BenchmarkActivity(options.binderLatencyMicros));
+                    engines.add(engine);
+                }
+            });
+            if (options.activityLifetimeMillis > 0) {
+                looper.postDelayed(this::recreateNextActivity, activityRecreationIntervalMillis());
+            }
+
+            running = true;
+            final List<Thread> callers = new ArrayList<>();
+            for (int i = 0; i < options.threads; i++) {
+                final int caller = i;
+                final Thread thread = new Thread(() -> makeCalls(caller), "caller-" + caller);
+                thread.setDaemon(true);
+                thread.start();
+                callers.add(thread);
+            }
+
+            Thread.sleep(TimeUnit.SECONDS.toMillis(options.warmupSeconds));
+
+            final long initialUsedBytes = usedHeapAfterFullCollection();
+            final long initialCollections = collectionCount();
+            final long initialCollectionMillis = collectionMillis();
+            final List<Object> heapSamples = new ArrayList<>();
+            final long startNanos = System.nanoTime();
+            final long endNanos = startNanos + TimeUnit.SECONDS.toNanos(options.durationSeconds);
+            measuring = true;
+
+            long now;
+            while ((now = System.nanoTime()) < endNanos) {
+                Thread.sleep(Math.min(options.sampleIntervalMillis, TimeUnit.NANOSECONDS.toMillis(endNanos - now) + 1));
+
+                final Map<String, Object> sample = new LinkedHashMap<>();
+                sample.put("elapsedMillis", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+                sample.put("usedBytes", ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed());
+                sample.put("usedAfterCollectionBytes", usedHeapAfterLastCollection());
+                heapSamples.add(sample);
+            }
+
+            measuring = false;
+            final long elapsedNanos = System.nanoTime() - startNanos;
+            running = false;
+            for (Thread thread : callers) {
+                thread.join();
+            }
+
+            // The engines stay attached, whatever the plugin still holds on to counts as growth.
+            looper.quit();
+            final long finalUsedBytes = usedHeapAfterFullCollection();
+
+            final Map<String, Object> heap = new LinkedHashMap<>();
+            heap.put("initialUsedBytes", initialUsedBytes);
+            heap.put("finalUsedBytes", finalUsedBytes);
+            heap.put("growthBytes", finalUsedBytes - initialUsedBytes);
+            heap.put("collections", collectionCount() - initialCollections);
+            heap.put("collectionMillis", collectionMillis() - initialCollectionMillis);
+            heap.put("samples", heapSamples);
+
+            return report(elapsedNanos, heap);
+        } finally {
+            ActivityCompat.setPermissionCompatDelegate(null);
+            looper.quit();
+            backgroundExecutor.shutdownNow();
+        }
+    }
+
+    private void makeCalls(int caller) {
+        final Engine engine = engines.get(caller % engines.size());
+        final Random random = new Random(options.seed + caller + 1);
+
+        while (running) {
+            final CallMix.Method method = CallMix.pick(methods, random);
+            final Reply reply = new Reply();
+            final long startNanos = System.nanoTime();
+            looper.execute(() -> {
+                try {
+                    engine.methodCallHandler.onMethodCall(method.call, reply);
+                } catch (RuntimeException e) {
+                    reply.error("exception", e.toString(), null);
+                }
+            });
+
+            final int outcome = reply.await(options.callTimeoutMillis);
+            final long elapsedNanos = System.nanoTime() - startNanos;
+            if (!measuring) {
+                continue;
+            }
+
+            method.latencies.record(elapsedNanos);
+            latencies.record(elapsedNanos);
+            if (outcome == Reply.ERROR) {
+                method.errors.incrementAndGet();
+            } else if (outcome == Reply.TIMEOUT) {
+                method.timeouts.incrementAndGet();
+            }
+        }
+    }
+
+    private long activityRecreationIntervalMillis() {
+        return Math.max(1, options.activityLifetimeMillis / options.engines);
+    }
+
+    /**
+     * Finishes the activity of the next engine in turn and attaches a new one, as happens when the
+     * user leaves a Flutter screen and opens it again. Runs on the looper.
+     */
+    private void recreateNextActivity() {
+        if (!running) {
+            return;
+        }
+
+        final Engine engine = engines.get(nextEngineToRecreate);
+        nextEngineToRecreate = (nextEngineToRecreate + 1) % engines.size();
+
+        final BenchmarkActivity activity = engine.activity;
+        activity.setFinishing(true);
+        permissionManager.onActivityDetached(activity);
+        engine.detach();
+        retiredActivities.add(new WeakReference<>(activity));
+
+        engine.attach(new BenchmarkActivity(options.binderLatencyMicros));
+        looper.postDelayed(this::recreateNextActivity, activityRecreationIntervalMillis());
+    }
+
+    private Map<String, Object> report(long elapsedNanos, Map<String, Object> heap) {
+        final double elapsedSeconds = elapsedNanos / 1e9;
+
+        long errors = 0;
+        long timeouts = 0;
+        final Map<String, Object> methodReports = new LinkedHashMap<>();
+        for (CallMix.Method method : methods) {
+            errors += method.errors.get();
+            timeouts += method.timeouts.get();
+            methodReports.put(method.call.method, callReport(
+                    method.latencies,
+                    method.errors.get(),
+                    method.timeouts.get(),
+                    elapsedSeconds));
+        }
+
+        final Map<String, Object> dialogs = new LinkedHashMap<>();
+        dialogs.put("shown", dialogsShown.get());
+        dialogs.put("answered", dialogsAnswered.get());
+        dialogs.put("answeredLate", dialogsAnsweredLate.get());
+        dialogs.put("rejectedResults", resultsRejected.get());
+        dialogs.put("droppedResults", resultsDropped.get());
+
+        int retainedActivities = 0;
+        for (WeakReference<Activity> activity : retiredActivities) {
+            if (activity.get() != null) {
+                retainedActivities++;
+            }
+        }
+        final Map<String, Object> activities = new LinkedHashMap<>();
+        activities.put("retired", retiredActivities.size());
+        activities.put("retained", retainedActivities);
+
+        final Map<String, Object> report = new LinkedHashMap<>();
+        report.put("options", options.toMap());
+        report.put("elapsedMillis", TimeUnit.NANOSECONDS.toMillis(elapsedNanos));
+        report.putAll(callReport(latencies, errors, timeouts, elapsedSeconds));
+        report.put("methods", methodReports);
+        report.put("dialogs", dialogs);
+        report.put("activities", activities);
+        report.put("failedPlatformTasks", looper.failedTasks());
+        report.put("heap", heap);
+        return report;
+    }
+
+    private static Map<String, Object> callReport(
+            LatencyHistogram latencies,
+            long errors,
+            long timeouts,
+            double elapsedSeconds) {
+        final long calls = latencies.count();
+
+        final Map<String, Object> latencyMicros = new LinkedHashMap<>();
+        latencyMicros.put("p50", latencies.percentile(0.50) / 1e3);
+        latencyMicros.put("p99", latencies.percentile(0.99) / 1e3);
+        latencyMicros.put("p999", latencies.percentile(0.999) / 1e3);
+        latencyMicros.put("max", latencies.max() / 1e3);
+
+        final Map<String, Object> report = new LinkedHashMap<>();
+        report.put("calls", calls);
+        report.put("errors", errors);
+        report.put("timeouts", timeouts);
+        report.put("errorRate", calls == 0 ? 0.0 : (double) (errors + timeouts) / calls);
+        report.put("throughputPerSecond", calls / elapsedSeconds);
+        report.put("latencyMicros", latencyMicros);
+        return report;
+    }
+
+    private void onLooper(Runnable task) throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(1);
+        looper.execute(() -> {
+            try {
+                task.run();
+            } finally {
+                done.countDown();
+            }
+        });
+        done.await();
+    }
+
+    private static long usedHeapAfterFullCollection() throws InterruptedException {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    /**
+     * Returns the heap in use right after the most recent collection of each heap pool, sampling
+     * it doesn't force a collection.
+     */
+    private static long usedHeapAfterLastCollection() {
+        long used = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            final MemoryUsage usage = pool.getType() == MemoryType.HEAP ? pool.getCollectionUsage() : null;
+            if (usage != null) {
+                used += usage.getUsed();
+            }
+        }
+        return used;
+    }
+
+    private static long collectionCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, collector.getCollectionCount());
+        }
+        return count;
+    }
+
+    private static long collectionMillis() {
+        long millis = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            millis += Math.max(0, collector.getCollectionTime());
+        }
+        return millis;
+    }
+
+    /**
+     * One Flutter engine with the plugin attached. The activity and its listener are only
+     * replaced on the looper.
+     */
+    private final class Engine {
+        final MethodCallHandlerImpl methodCallHandler = new MethodCallHandlerImpl(
+                applicationContext,
+                appSettingsManager,
+                permissionManager,
+                serviceManager,
+                snapshotStore,
+                backgroundExecutor,
+                looper);
+
+        BenchmarkActivity activity;
+        PermissionManager.RequestPermissionsListener listener;
+
+        void attach(BenchmarkActivity activity) {
+            this.activity = activity;
+            listener = new PermissionManager.RequestPermissionsListener(activity, permissionManager);
+            methodCallHandler.setActivity(activity);
+            enginesByActivity.put(activity, this);
+        }
+
+        void detach() {
+            enginesByActivity.remove(activity);
+            methodCallHandler.setActivity(null);
+            listener.release();
+            activity = null;
+            listener = null;
+        }
+    }
+
+    /**
+     * Takes the place of the system permission dialog. Every dialog is denied, so later requests
+     * keep showing one. Runs on the looper, where the permission manager shows its dialogs.
+     */
+    private final class SimulatedUser implements ActivityCompat.PermissionCompatDelegate {
+        @Override
+        public boolean requestPermissions(Activity activity, String[] permissions, int requestCode) {
+            if (measuring) {
+                dialogsShown.incrementAndGet();
+            }
+
+            final boolean late = userRandom.nextDouble() < options.lateDialogRatio;
+            final long delayMillis = late ? 2 * options.requestDeadlineMillis : options.dialogLatencyMillis;
+            looper.postDelayed(() -> answer(activity, permissions, requestCode, late), delayMillis);
+            return true;
+        }
+
+        @Override
+        public boolean onActivityResult(Activity activity, int requestCode, int resultCode, Intent data) {
+            return false;
+        }
+
+        private void answer(Activity activity, String[] permissions, int requestCode, boolean late) {
+            final Engine engine = enginesByActivity.get(activity);
+            final int[] grantResults = new int[permissions.length];
+            Arrays.fill(grantResults, PackageManager.PERMISSION_DENIED);
+
+            // The result of a dialog shown by a finished activity is never delivered.
+            if (engine == null) {
+                if (measuring) {
+                    resultsDropped.incrementAndGet();
+                }
+                return;
+            }
+
+            final boolean accepted = engine.listener.onRequestPermissionsResult(requestCode, permissions, grantResults);
+            if (!measuring) {
+                return;
+            }
+
+            if (late) {
+                dialogsAnsweredLate.incrementAndGet();
+            } else if (accepted) {
+                dialogsAnswered.incrementAndGet();
+            } else {
+                resultsRejected.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * The reply a caller waits for. Counted as an error when the plugin answers with an error or
+     * not implemented, and as a timeout when it doesn't answer in time.
+     */
+    private static final class Reply implements MethodChannel.Result {
+        static final int SUCCESS = 0;
+        static final int ERROR = 1;
+        static final int TIMEOUT = 2;
+
+        private final CountDownLatch replied = new CountDownLatch(1);
+        private volatile int outcome = SUCCESS;
+
+        int await(long timeoutMillis) {
+            try {
+                return replied.await(timeoutMillis, TimeUnit.MILLISECONDS) ? outcome : TIMEOUT;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return TIMEOUT;
+            }
+        }
+
+        @Override
+        public void success(Object result) {
+            replied.countDown();
+        }
+
+        @Override
+        public void error(String errorCode, String errorMessage, Object errorDetails) {
+            outcome = ERROR;
+            replied.countDown();
+        }
+
+        @Override
+        public void notImplemented() {
+            outcome = ERROR;
+            replied.countDown();
+        }
+    }
+
+    /**
+     * The weighted mix of method calls, given as {@code method:weight} pairs separated by commas.
+     */
+    static final class CallMix {
+        private static final Map<String, MethodCall> CALLS = new LinkedHashMap<>();
+
+        static {
+            CALLS.put("checkPermissionStatus", new MethodCall(
+                    "checkPermissionStatus",
+                    PermissionConstants.PERMISSION_GROUP_CAMERA));
+            CALLS.put("checkPermissionStatuses", new MethodCall(
+                    "checkPermissionStatuses",
+                    Arrays.asList(PermissionConstants.PERMISSION_GROUP_CAMERA, PermissionConstants.PERMISSION_GROUP_PHOTOS)));
+            CALLS.put("shouldShowRequestPermissionRationale", new MethodCall(
+                    "shouldShowRequestPermissionRationale",
+                    PermissionConstants.PERMISSION_GROUP_CAMERA));
+            CALLS.put("requestPermissions", new MethodCall(
+                    "requestPermissions",
+                    Arrays.asList(PermissionConstants.PERMISSION_GROUP_CAMERA)));
+            CALLS.put("openAppSettings", new MethodCall("openAppSettings", null));
+        }
+
+        static final class Method {
+            final MethodCall call;
+            final int weight;
+            final LatencyHistogram latencies = new LatencyHistogram();
+            final AtomicLong errors = new AtomicLong();
+            final AtomicLong timeouts = new AtomicLong();
+
+            Method(MethodCall call, int weight) {
+                this.call = call;
+                this.weight = weight;
+            }
+        }
+
+        static List<Method> parse(String mix) {
+            final List<Method> methods = new ArrayList<>();
+            for (String entry : mix.split(",")) {
+                final String[] parts = entry.trim().split(":");
+                final MethodCall call = parts.length == 2 ? CALLS.get(parts[0]) : null;
+                if (call == null) {
+                    throw new IllegalArgumentException(
+                            "Invalid call mix entry '" + entry + "', expected one of " + CALLS.keySet() + " with a weight.");
+                }
+
+                final int weight = Integer.parseInt(parts[1]);
+                if (weight > 0) {
+                    methods.add(new Method(call, weight));
+                }
+            }
+
+            if (methods.isEmpty()) {
+                throw new IllegalArgumentException("The call mix is empty.");
+            }
+            return methods;
+        }
+
+        static Method pick(List<Method> methods, Random random) {
+            int total = 0;
+            for (Method method : methods) {
+                total += method.weight;
+            }
+
+            int remaining = random.nextInt(total);
+            for (Method method : methods) {
+                remaining -= method.weight;
+                if (remaining < 0) {
+                    return method;
+                }
+            }
+            throw new IllegalStateException();
+        }
+    }
+
+    /**
+     * Options of a run, given on the command line as {@code --name=value}.
+     */
+    static final class Options {
+        int engines = 4;
+        int threads = 8;
+        long warmupSeconds = 5;
+        long durationSeconds = 30;
+        long binderLatencyMicros = 20;
+        long dialogLatencyMillis = 50;
+        double lateDialogRatio = 0.05;
+        long requestDeadlineMillis = 500;
+        long activityLifetimeMillis = 2000;
+        long sampleIntervalMillis = 1000;
+        long callTimeoutMillis = 5000;
+        long seed = 1;
+        String mix = "checkPermissionStatus:50,checkPermissionStatuses:20,shouldShowRequestPermissionRationale:15,"
+                + "requestPermissions:10,openAppSettings:5";
+        String output;
+
+        static Options parse(String[] args) {
+            final Options options = new Options();
+            for (String arg : args) {
+                final int separator = arg.indexOf('=');
+                if (!arg.startsWith("--") || separator < 0) {
+                    throw new IllegalArgumentException("Invalid option '" + arg + "', expected --name=value.");
+                }
+
+                options.set(arg.substring(2, separator), arg.substring(separator + 1));
+            }
+
+            if (options.engines < 1 || options.threads < 1) {
+                throw new IllegalArgumentException("At least one engine and one thread are needed.");
+            }
+            return options;
+        }
+
+        private void set(String name, String value) {
+            switch (name) {
+                case "engines": engines = Integer.parseInt(value); break;
+                case "threads": threads = Integer.parseInt(value); break;
+                case "warmupSeconds": warmupSeconds = Long.parseLong(value); break;
+                case "durationSeconds": durationSeconds = Long.parseLong(value); break;
+                case "binderLatencyMicros": binderLatencyMicros = Long.parseLong(value); break;
+                case "dialogLatencyMillis": dialogLatencyMillis = Long.parseLong(value); break;
+                case "lateDialogRatio": lateDialogRatio = Double.parseDouble(value); break;
+                case "requestDeadlineMillis": requestDeadlineMillis = Long.parseLong(value); break;
+                case "activityLifetimeMillis": activityLifetimeMillis = Long.parseLong(value); break;
+                case "sampleIntervalMillis": sampleIntervalMillis = Long.parseLong(value); break;
+                case "callTimeoutMillis": callTimeoutMillis = Long.parseLong(value); break;
+                case "seed": seed = Long.parseLong(value); break;
+                case "mix": mix = value; break;
+                case "output": output = value.isEmpty() ? null : value; break;
+                default: throw new IllegalArgumentException("Unknown option '" + name + "'.");
+            }
+        }
+
+        Map<String, Object> toMap() {
+            final Map<String, Object> map = new LinkedHashMap<>();
+            map.put("engines", engines);
+            map.put("threads", threads);
+            map.put("warmupSeconds", warmupSeconds);
+            map.put("durationSeconds", durationSeconds);
+            map.put("binderLatencyMicros", binderLatencyMicros);
+            map.put("dialogLatencyMillis", dialogLatencyMillis);
+            map.put("lateDialogRatio", lateDialogRatio);
+            map.put("requestDeadlineMillis", requestDeadlineMillis);
+            map.put("activityLifetimeMillis", activityLifetimeMillis);
+            map.put("sampleIntervalMillis", sampleIntervalMillis);
+            map.put("callTimeoutMillis", callTimeoutMillis);
+            map.put("seed", seed);
+            map.put("mix", mix);
+            return map;
+        }
+    }
+
+    /**
+     * Writes maps, collections, numbers, booleans and strings as JSON.
+     */
+    static final class Json {
+        static String write(Object value) {
+            final StringBuilder json = new StringBuilder();
+            write(json, value, "");
+            return json.toString();
+        }
+
+        private static void write(StringBuilder json, Object value, String indent) {
+            if (value instanceof Map) {
+                final String inner = indent + "  ";
+                json.append('{');
+                String separator = "\n";
+                for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                    json.append(separator).append(inner);
+                    writeString(json, String.valueOf(entry.getKey()));
+                    json.append(": ");
+                    write(json, entry.getValue(), inner);
+                    separator = ",\n";
+                }
+                json.append(separator.equals("\n") ? "" : "\n" + indent).append('}');
+            } else if (value instanceof Collection) {
+                final String inner = indent + "  ";
+                json.append('[');
+                String separator = "\n";
+                for (Object element : (Collection<?>) value) {
+                    json.append(separator).append(inner);
+                    write(json, element, inner);
+                    separator = ",\n";
+                }
+                json.append(separator.equals("\n") ? "" : "\n" + indent).append(']');
+            } else if (value instanceof Double) {
+                final double number = (Double) value;
+                json.append(Double.isNaN(number) || Double.isInfinite(number) ? "null" : String.valueOf(number));
+            } else if (value instanceof Number || value instanceof Boolean) {
+                json.append(value);
+            } else if (value == null) {
+                json.append("null");
+            } else {
+                writeString(json, value.toString());
+            }
+        }
+
+        private static void writeString(StringBuilder json, String value) {
+            json.append('"');
+            for (int i = 0; i < value.length(); i++) {
+                final char c = value.charAt(i);
+                if (c == '"' || c == '\\') {
+                    json.append('\\').append(c);
+                } else if (c < 0x20) {
+                    json.append(String.format("\\u%04x", (int) c));
+                } else {
+                    json.append(c);
+                }
+            }
+            json.append('"');
+        }
+    }
+}
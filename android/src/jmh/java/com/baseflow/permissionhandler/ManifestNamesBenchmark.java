@@ -0,0 +1,64 @@
+package com.baseflow.permissionhandler;
+
+import android.Manifest;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Maps between permission groups and manifest names, from the shared manifest index and after
+ * the index was dropped as it is when the application package is replaced.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ManifestNamesBenchmark {
+    @Param({"0", "20"})
+    public int binderLatencyMicros;
+
+    private BenchmarkActivity activity;
+
+    @Setup
+    public void setUp() {
+        BenchmarkActivity.resetSharedState();
+
+        activity = new BenchmarkActivity(binderLatencyMicros);
+        PermissionUtils.getManifestNames(activity, PermissionConstants.PERMISSION_GROUP_CAMERA);
+    }
+
+    @Benchmark
+    public List<String> getManifestNames() {
+        return PermissionUtils.getManifestNames(activity, PermissionConstants.PERMISSION_GROUP_CAMERA);
+    }
+
+    @Benchmark
+    public List<String> getManifestNamesAfterPackageReplaced() {
+        ManifestIndex.invalidate();
+        return PermissionUtils.getManifestNames(activity, PermissionConstants.PERMISSION_GROUP_CAMERA);
+    }
+
+    @Benchmark
+    public int parseManifestName() {
+        return PermissionUtils.parseManifestName(Manifest.permission.CAMERA);
+    }
+
+    @Benchmark
+    public int parseUnknownManifestName() {
+        return PermissionUtils.parseManifestName(Manifest.permission.READ_PHONE_STATE);
+    }
+}
@@ -0,0 +1,115 @@
+package com.baseflow.permissionhandler;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import io.flutter.plugin.common.MethodCall;
+import io.flutter.plugin.common.MethodChannel;
+
+/**
+ * Handles method calls as they arrive from the method channel. Status checks that miss the cache
+ * run on the calling thread here, so an operation covers the whole call up to its reply.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MethodCallBenchmark {
+    private static final MethodCall CHECK_PERMISSION_STATUS =
+            new MethodCall("checkPermissionStatus", PermissionConstants.PERMISSION_GROUP_CAMERA);
+    private static final MethodCall CHECK_PERMISSION_STATUSES = new MethodCall(
+            "checkPermissionStatuses",
+            Arrays.asList(
+                    PermissionConstants.PERMISSION_GROUP_CAMERA,
+                    PermissionConstants.PERMISSION_GROUP_PHOTOS));
+    private static final MethodCall SHOULD_SHOW_REQUEST_PERMISSION_RATIONALE =
+            new MethodCall("shouldShowRequestPermissionRationale", PermissionConstants.PERMISSION_GROUP_CAMERA);
+
+    @Param({"0", "20"})
+    public int binderLatencyMicros;
+
+    private PermissionManager permissionManager;
+    private MethodCallHandlerImpl methodCallHandler;
+    private final LastResult result = new LastResult();
+
+    @Setup
+    public void setUp() {
+        BenchmarkActivity.resetSharedState();
+
+        final BenchmarkActivity activity = new BenchmarkActivity(binderLatencyMicros);
+        permissionManager = new PermissionManager();
+        methodCallHandler = new MethodCallHandlerImpl(
+                activity,
+                new AppSettingsManager(),
+                permissionManager,
+                new ServiceManager(),
+                new PermissionSnapshotStore(),
+                Runnable::run,
+                Runnable::run);
+        methodCallHandler.setActivity(activity);
+
+        methodCallHandler.onMethodCall(CHECK_PERMISSION_STATUS, result);
+    }
+
+    @Benchmark
+    public Object checkPermissionStatusCached() {
+        methodCallHandler.onMethodCall(CHECK_PERMISSION_STATUS, result);
+        return result.take();
+    }
+
+    @Benchmark
+    public Object checkPermissionStatusesEvaluated() {
+        permissionManager.invalidateStatusCache();
+        methodCallHandler.onMethodCall(CHECK_PERMISSION_STATUSES, result);
+        return result.take();
+    }
+
+    @Benchmark
+    public Object shouldShowRequestPermissionRationale() {
+        methodCallHandler.onMethodCall(SHOULD_SHOW_REQUEST_PERMISSION_RATIONALE, result);
+        return result.take();
+    }
+
+    private static final class LastResult implements MethodChannel.Result {
+        private Object value;
+
+        Object take() {
+            final Object value = this.value;
+            if (value == null) {
+                throw new IllegalStateException("The method call was not answered");
+            }
+
+            this.value = null;
+            return value;
+        }
+
+        @Override
+        public void success(Object result) {
+            value = result;
+        }
+
+        @Override
+        public void error(String errorCode, String errorMessage, Object errorDetails) {
+            throw new IllegalStateException(errorCode + ": " + errorMessage);
+        }
+
+        @Override
+        public void notImplemented() {
+            throw new IllegalStateException("Not implemented");
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package com.baseflow.permissionhandler;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checks the status of a group that needs a runtime permission, answered from the status cache
+ * or evaluated through {@code PermissionManager#determinePermissionStatus} after the cache was
+ * invalidated.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PermissionStatusBenchmark {
+    @Param({"0", "20"})
+    public int binderLatencyMicros;
+
+    private BenchmarkActivity activity;
+    private PermissionManager permissionManager;
+    private PermissionManager.CheckPermissionsSuccessCallback successCallback;
+    private ErrorCallback errorCallback;
+    private int permissionStatus;
+
+    @Setup
+    public void setUp() {
+        BenchmarkActivity.resetSharedState();
+
+        activity = new BenchmarkActivity(binderLatencyMicros);
+        permissionManager = new PermissionManager();
+        successCallback = (int permissionStatus) -> this.permissionStatus = permissionStatus;
+        errorCallback = (String errorCode, String errorDescription) -> {
+            throw new IllegalStateException(errorCode + ": " + errorDescription);
+        };
+
+        checkStatus();
+    }
+
+    @Benchmark
+    public int cachedStatus() {
+        return checkStatus();
+    }
+
+    @Benchmark
+    public int evaluatedStatus() {
+        permissionManager.invalidateStatusCache();
+        return checkStatus();
+    }
+
+    private int checkStatus() {
+        permissionManager.checkPermissionStatus(
+                PermissionConstants.PERMISSION_GROUP_CAMERA,
+                activity,
+                activity,
+                successCallback,
+                errorCallback);
+        return permissionStatus;
+    }
+}
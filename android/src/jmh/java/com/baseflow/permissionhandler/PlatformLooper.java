@@ -0,0 +1,85 @@
+package com.baseflow.permissionhandler;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stands in for the main looper of the application in the load harness. Method calls are
+ * delivered, replies are posted and permission request deadlines fire on its single thread, as
+ * they do on the platform thread of a device.
+ *
+ * <p>Tasks that throw are counted rather than lost, see {@link #failedTasks()}.
+ */
+final class PlatformLooper implements Executor, DeadlineScheduler {
+    private final ScheduledThreadPoolExecutor executor;
+    private final long startNanos = System.nanoTime();
+    private final AtomicLong failedTasks = new AtomicLong();
+
+    // Deadlines are only scheduled and cancelled on the looper thread.
+    private final Map<Runnable, ScheduledFuture<?>> deadlines = new HashMap<>();
+
+    PlatformLooper() {
+        executor = new ScheduledThreadPoolExecutor(1, (Runnable runnable) -> {
+            final Thread thread = new Thread(runnable, "platform");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.setRemoveOnCancelPolicy(true);
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        executor.execute(() -> run(task));
+    }
+
+    void postDelayed(Runnable task, long delayMillis) {
+        executor.schedule(() -> run(task), delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public long uptimeMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+    }
+
+    @Override
+    public void schedule(Runnable task, long delayMillis) {
+        deadlines.put(task, executor.schedule(() -> {
+            deadlines.remove(task);
+            run(task);
+        }, delayMillis, TimeUnit.MILLISECONDS));
+    }
+
+    @Override
+    public void cancel(Runnable task) {
+        final ScheduledFuture<?> deadline = deadlines.remove(task);
+        if (deadline != null) {
+            deadline.cancel(false);
+        }
+    }
+
+    long failedTasks() {
+        return failedTasks.get();
+    }
+
+    /**
+     * Stops the looper, tasks that are still queued or delayed never run.
+     */
+    void quit() throws InterruptedException {
+        executor.shutdownNow();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+    }
+
+    private void run(Runnable task) {
+        try {
+            task.run();
+        } catch (RuntimeException e) {
+            failedTasks.incrementAndGet();
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.baseflow.permissionhandler;
+
+import android.content.pm.PackageManager;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Delivers the result of a permission dialog through the
+ * {@link PermissionManager.RequestPermissionsListener} of the activity. A result is only accepted
+ * while its dialog is on screen, so every operation requests the permission first.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RequestResultBenchmark {
+    private static final int[] CAMERA = {PermissionConstants.PERMISSION_GROUP_CAMERA};
+    private static final int[] GRANTED = {PackageManager.PERMISSION_GRANTED};
+    private static final int REQUEST_CODE_COUNT =
+            PermissionConstants.PERMISSION_CODE_MAX - PermissionConstants.PERMISSION_CODE + 1;
+
+    @Param({"0", "20"})
+    public int binderLatencyMicros;
+
+    private BenchmarkActivity activity;
+    private PermissionManager permissionManager;
+    private PermissionManager.RequestPermissionsListener listener;
+    private PermissionManager.RequestPermissionsSuccessCallback successCallback;
+    private ErrorCallback errorCallback;
+    private PermissionStatusTable results;
+    private int dialogs;
+
+    @Setup
+    public void setUp() {
+        BenchmarkActivity.resetSharedState();
+
+        activity = new BenchmarkActivity(binderLatencyMicros);
+        permissionManager = new PermissionManager(new NoDeadlineScheduler());
+        listener = new PermissionManager.RequestPermissionsListener(activity, permissionManager);
+        successCallback = (PermissionStatusTable results) -> this.results = results;
+        errorCallback = (String errorCode, String errorDescription) -> {
+            throw new IllegalStateException(errorCode + ": " + errorDescription);
+        };
+    }
+
+    @Benchmark
+    public PermissionStatusTable onRequestPermissionsResult() {
+        permissionManager.requestPermissions(CAMERA, activity, successCallback, errorCallback);
+
+        // Dialogs take the request codes of the range in turn.
+        final int requestCode = PermissionConstants.PERMISSION_CODE + dialogs++ % REQUEST_CODE_COUNT;
+        if (!listener.onRequestPermissionsResult(requestCode, BenchmarkActivity.REQUESTED_PERMISSIONS, GRANTED)) {
+            throw new IllegalStateException("The result of request " + requestCode + " was not accepted");
+        }
+        return results;
+    }
+
+    /**
+     * Dialogs are answered right away, their deadlines never need to fire.
+     */
+    private static final class NoDeadlineScheduler implements DeadlineScheduler {
+        @Override
+        public long uptimeMillis() {
+            return 0;
+        }
+
+        @Override
+        public void schedule(Runnable task, long delayMillis) {
+        }
+
+        @Override
+        public void cancel(Runnable task) {
+        }
+    }
+}
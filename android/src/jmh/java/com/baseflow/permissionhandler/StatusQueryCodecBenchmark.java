@@ -0,0 +1,113 @@
+package com.baseflow.permissionhandler;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import io.flutter.plugin.common.MethodCall;
+import io.flutter.plugin.common.StandardMethodCodec;
+
+/**
+ * Compares the {@link StatusQueryCodec} with the {@link StandardMethodCodec} the method channel
+ * uses, for the arguments of a {@code checkPermissionStatuses} call and for its reply. Decoding
+ * includes the conversion into the permission groups and statuses the plugin works with, as the
+ * method channel leaves that to {@link MethodCallHandlerImpl}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StatusQueryCodecBenchmark {
+    private static final StandardMethodCodec STANDARD_CODEC = StandardMethodCodec.INSTANCE;
+
+    @Param({"1", "8", "20"})
+    public int groupCount;
+
+    private List<Integer> permissionList;
+    private int[] permissions;
+    private PermissionStatusTable statuses;
+    private StatusQueryCodec.Query query;
+
+    private ByteBuffer standardQuery;
+    private ByteBuffer standardReply;
+    private ByteBuffer compactQuery;
+    private ByteBuffer compactReply;
+
+    @Setup
+    public void setUp() {
+        permissionList = new ArrayList<>(groupCount);
+        permissions = new int[groupCount];
+        statuses = new PermissionStatusTable();
+        for (int i = 0; i < groupCount; i++) {
+            permissionList.add(i);
+            permissions[i] = i;
+            statuses.put(i, PermissionConstants.PERMISSION_STATUS_GRANTED);
+        }
+        query = new StatusQueryCodec.Query(StatusQueryCodec.OPCODE_PERMISSION_STATUS, permissions);
+
+        standardQuery = encodeStandardQuery();
+        standardReply = encodeStandardReply();
+        compactQuery = encodeCompactQuery();
+        compactReply = encodeCompactReply();
+    }
+
+    @Benchmark
+    public ByteBuffer encodeStandardQuery() {
+        return STANDARD_CODEC.encodeMethodCall(new MethodCall("checkPermissionStatuses", permissionList));
+    }
+
+    @Benchmark
+    public int[] decodeStandardQuery() {
+        standardQuery.rewind();
+        final MethodCall call = STANDARD_CODEC.decodeMethodCall(standardQuery);
+        return PermissionStatusTable.toGroupArray(call.arguments());
+    }
+
+    @Benchmark
+    public ByteBuffer encodeCompactQuery() {
+        return StatusQueryCodec.encodeQuery(StatusQueryCodec.OPCODE_PERMISSION_STATUS, permissions);
+    }
+
+    @Benchmark
+    public StatusQueryCodec.Query decodeCompactQuery() {
+        compactQuery.rewind();
+        return StatusQueryCodec.decodeQuery(compactQuery);
+    }
+
+    @Benchmark
+    public ByteBuffer encodeStandardReply() {
+        return STANDARD_CODEC.encodeSuccessEnvelope(statuses.toMap());
+    }
+
+    @Benchmark
+    public Object decodeStandardReply() {
+        standardReply.rewind();
+        return STANDARD_CODEC.decodeEnvelope(standardReply);
+    }
+
+    @Benchmark
+    public ByteBuffer encodeCompactReply() {
+        return StatusQueryCodec.encodeReply(query, statuses);
+    }
+
+    @Benchmark
+    public int[] decodeCompactReply() {
+        compactReply.rewind();
+        return StatusQueryCodec.decodeReply(compactReply);
+    }
+}
@@ -0,0 +1,65 @@
+package com.baseflow.permissionhandler;
+
+import android.app.Activity;
+import android.app.Application;
+import android.os.Bundle;
+
+/**
+ * Notifies the plugin each time the activity it is attached to resumes, which is the moment the
+ * user may return from a system permission dialog or the app settings screen.
+ */
+final class ActivityResumeListener implements Application.ActivityLifecycleCallbacks {
+    @FunctionalInterface
+    interface ResumeCallback {
+        void onResumed();
+    }
+
+    private final Activity activity;
+    private final ResumeCallback callback;
+
+    private ActivityResumeListener(Activity activity, ResumeCallback callback) {
+        this.activity = activity;
+        this.callback = callback;
+    }
+
+    static ActivityResumeListener register(Activity activity, ResumeCallback callback) {
+        final ActivityResumeListener listener = new ActivityResumeListener(activity, callback);
+        activity.getApplication().registerActivityLifecycleCallbacks(listener);
+        return listener;
+    }
+
+    void unregister() {
+        activity.getApplication().unregisterActivityLifecycleCallbacks(this);
+    }
+
+    @Override
+    public void onActivityResumed(Activity activity) {
+        if (activity == this.activity) {
+            callback.onResumed();
+        }
+    }
+
+    @Override
+    public void onActivityCreated(Activity activity, Bundle savedInstanceState) {
+    }
+
+    @Override
+    public void onActivityStarted(Activity activity) {
+    }
+
+    @Override
+    public void onActivityPaused(Activity activity) {
+    }
+
+    @Override
+    public void onActivityStopped(Activity activity) {
+    }
+
+    @Override
+    public void onActivitySaveInstanceState(Activity activity, Bundle outState) {
+    }
+
+    @Override
+    public void onActivityDestroyed(Activity activity) {
+    }
+}
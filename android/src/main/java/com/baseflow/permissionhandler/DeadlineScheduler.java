@@ -0,0 +1,42 @@
+package com.baseflow.permissionhandler;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+/**
+ * Clock and timer used by the {@link PermissionManager} to enforce the deadline of an ongoing
+ * permission request. Tasks run on the platform thread.
+ *
+ * <p>The default implementation is backed by the main {@link Handler}, tests can supply a fake
+ * that advances time explicitly.
+ */
+interface DeadlineScheduler {
+    /**
+     * Returns the current time in milliseconds, on the same time base used to schedule tasks.
+     */
+    long uptimeMillis();
+
+    void schedule(Runnable task, long delayMillis);
+
+    void cancel(Runnable task);
+
+    final class MainThread implements DeadlineScheduler {
+        private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+        @Override
+        public long uptimeMillis() {
+            return SystemClock.uptimeMillis();
+        }
+
+        @Override
+        public void schedule(Runnable task, long delayMillis) {
+            mainHandler.postDelayed(task, delayMillis);
+        }
+
+        @Override
+        public void cancel(Runnable task) {
+            mainHandler.removeCallbacks(task);
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package com.baseflow.permissionhandler;
+
+import java.util.concurrent.Executor;
+
+import io.flutter.plugin.common.MethodChannel;
+
+/**
+ * Forwards a method call result to the platform thread, allowing method calls to be handled on a
+ * background thread. The Flutter engine only accepts replies on the platform thread.
+ */
+final class MainThreadResult implements MethodChannel.Result {
+    private final MethodChannel.Result result;
+    private final Executor platformExecutor;
+
+    MainThreadResult(MethodChannel.Result result, Executor platformExecutor) {
+        this.result = result;
+        this.platformExecutor = platformExecutor;
+    }
+
+    @Override
+    public void success(final Object value) {
+        platformExecutor.execute(() -> result.success(value));
+    }
+
+    @Override
+    public void error(final String errorCode, final String errorMessage, final Object errorDetails) {
+        platformExecutor.execute(() -> result.error(errorCode, errorMessage, errorDetails));
+    }
+
+    @Override
+    public void notImplemented() {
+        platformExecutor.execute(result::notImplemented);
+    }
+}
@@ -0,0 +1,169 @@
+package com.baseflow.permissionhandler;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Immutable, process wide index of the permissions requested in the application manifest.
+ *
+ * <p>The index is built lazily with a single {@link PackageManager#getPackageInfo(String, int)}
+ * call and shared by every lookup afterwards. It also holds, per permission group, the shared list
+ * of the group's manifest names that the application actually requests. The requested
+ * permissions can only change when the application package is replaced, in which case the index
+ * is dropped and rebuilt on next use.
+ */
+final class ManifestIndex {
+    private static final ManifestIndex EMPTY = new ManifestIndex(Collections.<String>emptySet(), 0);
+
+    private static volatile ManifestIndex instance;
+    private static BroadcastReceiver packageReplacedReceiver;
+
+    private final Set<String> requestedPermissions;
+    private final int targetSdkVersion;
+    private final List<String>[] manifestNames;
+
+    @SuppressWarnings("unchecked")
+    private ManifestIndex(Set<String> requestedPermissions, int targetSdkVersion) {
+        this.requestedPermissions = requestedPermissions;
+        this.targetSdkVersion = targetSdkVersion;
+        this.manifestNames = new List[PermissionConstants.PERMISSION_GROUP_COUNT];
+
+        for (int permission = 0; permission < manifestNames.length; permission++) {
+            final List<String> declaredNames = ManifestNameRegistry.getDeclaredNames(permission);
+            if (declaredNames == null || declaredNames.isEmpty()) {
+                manifestNames[permission] = declaredNames;
+                continue;
+            }
+
+            final List<String> names = new ArrayList<>(declaredNames.size());
+            for (String name : declaredNames) {
+                if (requestedPermissions.contains(name)) {
+                    names.add(name);
+                }
+            }
+
+            manifestNames[permission] = names.size() == declaredNames.size()
+                    ? declaredNames
+                    : Collections.unmodifiableList(names);
+        }
+    }
+
+    /**
+     * Returns the shared index, building it on first use. Callers racing the first build wait for
+     * it to complete instead of querying the {@link PackageManager} themselves.
+     */
+    static ManifestIndex get(Context context) {
+        ManifestIndex index = instance;
+        if (index != null) {
+            return index;
+        }
+
+        synchronized (ManifestIndex.class) {
+            if (instance != null) {
+                return instance;
+            }
+
+            index = build(context);
+            if (index != EMPTY) {
+                registerPackageReplacedReceiver(context);
+                instance = index;
+            }
+            return index;
+        }
+    }
+
+    /**
+     * Drops the shared index so the next lookup reads the manifest again.
+     */
+    static void invalidate() {
+        instance = null;
+    }
+
+    boolean hasPermission(String permission) {
+        return requestedPermissions.contains(permission);
+    }
+
+    int getTargetSdkVersion() {
+        return targetSdkVersion;
+    }
+
+    /**
+     * Returns the manifest names of the supplied group that are requested by the application, or
+     * {@code null} when the group doesn't need an Android permission. The returned list is
+     * shared and immutable.
+     */
+    List<String> getManifestNames(@PermissionConstants.PermissionGroup int permission) {
+        if (!PermissionStatusTable.isValidGroup(permission)) {
+            return Collections.<String>emptyList();
+        }
+
+        return manifestNames[permission];
+    }
+
+    private static ManifestIndex build(Context context) {
+        try {
+            final long startNanos = PluginDiagnostics.start();
+            PackageInfo info = context
+                    .getPackageManager()
+                    .getPackageInfo(context.getPackageName(), PackageManager.GET_PERMISSIONS);
+            PluginDiagnostics.recordBinderCall(PluginDiagnostics.BINDER_GET_PACKAGE_INFO, startNanos);
+
+            if (info == null) {
+                Log.d(PermissionConstants.LOG_TAG, "Unable to get Package info, will not be able to determine permissions to request.");
+                return EMPTY;
+            }
+
+            final Set<String> requestedPermissions = new HashSet<>();
+            if (info.requestedPermissions != null) {
+                Collections.addAll(requestedPermissions, info.requestedPermissions);
+            }
+
+            final int targetSdkVersion = info.applicationInfo != null
+                    ? info.applicationInfo.targetSdkVersion
+                    : context.getApplicationInfo().targetSdkVersion;
+
+            return new ManifestIndex(
+                    Collections.unmodifiableSet(requestedPermissions),
+                    targetSdkVersion);
+        } catch (Exception ex) {
+            Log.d(PermissionConstants.LOG_TAG, "Unable to read permissions from manifest: ", ex);
+            return EMPTY;
+        }
+    }
+
+    private static void registerPackageReplacedReceiver(Context context) {
+        if (packageReplacedReceiver != null) {
+            return;
+        }
+
+        final Context applicationContext = context.getApplicationContext() != null
+                ? context.getApplicationContext()
+                : context;
+
+        packageReplacedReceiver = new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                invalidate();
+            }
+        };
+
+        try {
+            applicationContext.registerReceiver(
+                    packageReplacedReceiver,
+                    new IntentFilter(Intent.ACTION_MY_PACKAGE_REPLACED));
+        } catch (Exception ex) {
+            Log.d(PermissionConstants.LOG_TAG, "Unable to listen for package replaced events: ", ex);
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package com.baseflow.permissionhandler;
+
+import android.Manifest;
+import android.os.Build;
+
+import androidx.annotation.VisibleForTesting;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Declares which manifest permissions belong to each permission group.
+ *
+ * <p>The declarations are resolved once against the SDK level of the device. Groups that don't
+ * need an Android permission have no entry at all ({@link #getDeclaredNames(int)} returns
+ * {@code null}), groups that are known but not declared below resolve to an empty list.
+ */
+final class ManifestNameRegistry {
+    // Replaced as a whole, so readers always see a complete set of declarations.
+    private static volatile Declarations declarations = declare(Build.VERSION.SDK_INT);
+
+    private ManifestNameRegistry() {
+    }
+
+    /**
+     * Returns the manifest permissions that make up the supplied group on this device, regardless
+     * of whether the application declares them. The returned list is shared and immutable.
+     */
+    static List<String> getDeclaredNames(@PermissionConstants.PermissionGroup int permission) {
+        if (!PermissionStatusTable.isValidGroup(permission)) {
+            return Collections.emptyList();
+        }
+
+        return declarations.names[permission];
+    }
+
+    @PermissionConstants.PermissionGroup
+    static int getGroup(String manifestName) {
+        final Integer permission = declarations.groupsByName.get(manifestName);
+        return permission != null ? permission : PermissionConstants.PERMISSION_GROUP_UNKNOWN;
+    }
+
+    /**
+     * Resolves the declarations again against the supplied SDK level. The android.jar used by
+     * unit tests reports SDK 0, at which no group would have any manifest names.
+     */
+    @VisibleForTesting
+    static void setSdkVersion(int sdkVersion) {
+        declarations = declare(sdkVersion);
+        ManifestIndex.invalidate();
+    }
+
+    private static Declarations declare(int sdkVersion) {
+        final Declarations declarations = new Declarations(sdkVersion);
+
+        declarations.declareWithoutPermission(PermissionConstants.PERMISSION_GROUP_NOTIFICATION);
+        declarations.declareWithoutPermission(PermissionConstants.PERMISSION_GROUP_PHOTOS);
+        declarations.declareWithoutPermission(PermissionConstants.PERMISSION_GROUP_UNKNOWN);
+
+        declarations.declare(PermissionConstants.PERMISSION_GROUP_CAMERA,
+                new ManifestName(Manifest.permission.CAMERA, Build.VERSION_CODES.BASE));
+        declarations.declare(PermissionConstants.PERMISSION_GROUP_IGNORE_BATTERY_OPTIMIZATIONS,
+                new ManifestName(Manifest.permission.REQUEST_IGNORE_BATTERY_OPTIMIZATIONS, Build.VERSION_CODES.M));
+
+        return declarations;
+    }
+
+    private static final class Declarations {
+        final int sdkVersion;
+        final List<String>[] names;
+        final Map<String, Integer> groupsByName = new HashMap<>();
+
+        @SuppressWarnings("unchecked")
+        Declarations(int sdkVersion) {
+            this.sdkVersion = sdkVersion;
+            this.names = new List[PermissionConstants.PERMISSION_GROUP_COUNT];
+            for (int i = 0; i < names.length; i++) {
+                names[i] = Collections.emptyList();
+            }
+        }
+
+        void declareWithoutPermission(@PermissionConstants.PermissionGroup int permission) {
+            names[permission] = null;
+        }
+
+        void declare(@PermissionConstants.PermissionGroup int permission, ManifestName... manifestNames) {
+            final List<String> declaredNames = new ArrayList<>(manifestNames.length);
+            for (ManifestName manifestName : manifestNames) {
+                if (sdkVersion < manifestName.minSdkVersion) {
+                    continue;
+                }
+
+                declaredNames.add(manifestName.name);
+
+                // A manifest name shared by several groups resolves to the group declared first.
+                if (!groupsByName.containsKey(manifestName.name)) {
+                    groupsByName.put(manifestName.name, permission);
+                }
+            }
+
+            names[permission] = Collections.unmodifiableList(declaredNames);
+        }
+    }
+
+    private static final class ManifestName {
+        final String name;
+        final int minSdkVersion;
+
+        ManifestName(String name, int minSdkVersion) {
+            this.name = name;
+            this.minSdkVersion = minSdkVersion;
+        }
+    }
+}
@@ -2,56 +2,186 @@ package com.baseflow.permissionhandler;
 
 import android.app.Activity;
 import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
 
 import androidx.annotation.NonNull;
 
 import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
 import io.flutter.plugin.common.BinaryMessenger;
 import io.flutter.plugin.common.MethodCall;
 import io.flutter.plugin.common.MethodChannel;
 import io.flutter.plugin.common.MethodChannel.Result;
-import com.baseflow.permissionhandler.PermissionManager.PermissionRegistry;
 
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
 
 final class MethodCallHandlerImpl implements MethodChannel.MethodCallHandler {
     private final Context applicationContext;
     private final AppSettingsManager appSettingsManager;
     private final PermissionManager permissionManager;
     private final ServiceManager serviceManager;
+    private final PermissionSnapshotStore snapshotStore;
+    private final Executor backgroundExecutor;
+    private final Executor platformExecutor;
 
+    private static final int[] ALL_PERMISSION_GROUPS = allPermissionGroups();
+    private static final int[] SERVICE_PERMISSION_GROUPS = servicePermissionGroups();
+
+    /**
+     * Creates a handler that runs the read-only status checks on {@code backgroundExecutor}.
+     * Requesting permissions and opening the app settings always happen on the platform thread.
+     */
+    MethodCallHandlerImpl(
+            Context applicationContext,
+            AppSettingsManager appSettingsManager,
+            PermissionManager permissionManager,
+            ServiceManager serviceManager,
+            PermissionSnapshotStore snapshotStore,
+            Executor backgroundExecutor) {
+        this(
+                applicationContext,
+                appSettingsManager,
+                permissionManager,
+                serviceManager,
+                snapshotStore,
+                backgroundExecutor,
+                new Handler(Looper.getMainLooper())::post);
+    }
+
+    /**
+     * Creates a handler that delivers the results of background status checks through
+     * {@code platformExecutor}, which stands in for the platform thread on the host JVM.
+     */
+    @VisibleForTesting
     MethodCallHandlerImpl(
             Context applicationContext,
             AppSettingsManager appSettingsManager,
             PermissionManager permissionManager,
-            ServiceManager serviceManager) {
+            ServiceManager serviceManager,
+            PermissionSnapshotStore snapshotStore,
+            Executor backgroundExecutor,
+            Executor platformExecutor) {
         this.applicationContext = applicationContext;
         this.appSettingsManager = appSettingsManager;
         this.permissionManager = permissionManager;
         this.serviceManager = serviceManager;
+        this.snapshotStore = snapshotStore;
+        this.backgroundExecutor = backgroundExecutor;
+        this.platformExecutor = platformExecutor;
     }
 
     @Nullable
-    private Activity activity;
-
-    @Nullable
-    private PermissionRegistry permissionRegistry;
+    private volatile Activity activity;
 
     public void setActivity(@Nullable Activity activity) {
       this.activity = activity;
     }
 
-    public void setPermissionRegistry(
-        @Nullable PermissionRegistry permissionRegistry) {
-      this.permissionRegistry = permissionRegistry;
+  @Override
+    public void onMethodCall(@NonNull MethodCall call, @NonNull Result rawResult)
+    {
+        final Result result = PluginDiagnostics.instrument(call.method, rawResult);
+
+        switch (call.method) {
+            case "checkPermissionStatus": {
+                // Statuses that are still cached are answered right away, without allocating.
+                @PermissionConstants.PermissionStatus final int permissionStatus = permissionManager.getCachedPermissionStatus(
+                        parsePermissionGroup(call.arguments),
+                        activity);
+                if (permissionStatus != PermissionStatusCache.NO_STATUS) {
+                    result.success(permissionStatus);
+                    break;
+                }
+
+                dispatchStatusMethodCall(call, result);
+                break;
+            }
+            case "checkServiceStatus":
+            case "checkServiceStatuses":
+            case "checkPermissionStatuses":
+            case "checkPermissionStatusDetails":
+            case "checkNotificationChannelStatuses":
+            case "shouldShowRequestPermissionRationale":
+            case "shouldShowRequestPermissionRationales":
+            case "getPermissionSnapshot":
+                dispatchStatusMethodCall(call, result);
+                break;
+            case "requestPermissions":
+                final int[] permissions = PermissionStatusTable.toGroupArray(call.arguments());
+                permissionManager.requestPermissions(
+                        permissions,
+                        activity,
+                        (PermissionStatusTable results) -> result.success(results.toMap()),
+                        (String errorCode, String errorDescription) -> result.error(
+                                errorCode,
+                                errorDescription,
+                                null));
+
+                break;
+            case "openAppSettings":
+                appSettingsManager.openAppSettings(
+                        applicationContext,
+                        (boolean appSettingsOpenedSuccessfully) -> {
+                            permissionManager.invalidateStatusCache();
+                            result.success(appSettingsOpenedSuccessfully);
+                        },
+                        (String errorCode, String errorDescription) -> result.error(
+                                errorCode,
+                                errorDescription,
+                                null));
+
+                break;
+            case "getDiagnostics":
+                result.success(PluginDiagnostics.snapshot());
+
+                break;
+            case "setDiagnosticsEnabled":
+                PluginDiagnostics.setEnabled(Boolean.TRUE.equals(call.arguments));
+                result.success(null);
+
+                break;
+            default:
+                result.notImplemented();
+                break;
+        }
     }
 
-  @Override
-    public void onMethodCall(@NonNull MethodCall call, @NonNull final Result result)
+    private void dispatchStatusMethodCall(MethodCall call, Result result) {
+        final Activity activity = this.activity;
+        final Result mainThreadResult = new MainThreadResult(result, platformExecutor);
+        backgroundExecutor.execute(() -> {
+            // The method channel only catches exceptions thrown on the platform thread, report
+            // malformed arguments as an error instead of crashing the background thread.
+            try {
+                onStatusMethodCall(call, activity, mainThreadResult);
+            } catch (RuntimeException e) {
+                mainThreadResult.error("error", e.getMessage(), null);
+            }
+        });
+    }
+
+    private static int parsePermissionGroup(Object arguments) {
+        // The standard method codec decodes the permission group as an Integer, avoid the
+        // String round trip in that case.
+        if (arguments instanceof Integer) {
+            return (Integer) arguments;
+        }
+
+        return Integer.parseInt(arguments.toString());
+    }
+
+    /**
+     * Handles the read-only method calls, these run on the background executor.
+     */
+    private void onStatusMethodCall(MethodCall call, @Nullable Activity activity, final Result result)
     {
         switch (call.method) {
             case "checkServiceStatus": {
-                @PermissionConstants.PermissionGroup final int permission = Integer.parseInt(call.arguments.toString());
+                @PermissionConstants.PermissionGroup final int permission = parsePermissionGroup(call.arguments);
                 serviceManager.checkServiceStatus(
                         permission,
                         applicationContext,
@@ -63,12 +193,25 @@ final class MethodCallHandlerImpl implements MethodChannel.MethodCallHandler {
 
                 break;
             }
+            case "checkServiceStatuses": {
+                final int[] permissions = PermissionStatusTable.toGroupArray(call.arguments());
+                serviceManager.checkServiceStatuses(
+                        permissions,
+                        applicationContext,
+                        (PermissionStatusTable serviceStatuses) -> result.success(serviceStatuses.toMap()),
+                        (String errorCode, String errorDescription) -> result.error(
+                                errorCode,
+                                errorDescription,
+                                null));
+
+                break;
+            }
             case "checkPermissionStatus": {
-                @PermissionConstants.PermissionGroup final int permission = Integer.parseInt(call.arguments.toString());
+                @PermissionConstants.PermissionGroup final int permission = parsePermissionGroup(call.arguments);
                 permissionManager.checkPermissionStatus(
                         permission,
                         applicationContext,
-						activity,
+                        activity,
                         result::success,
                         (String errorCode, String errorDescription) -> result.error(
                                 errorCode,
@@ -77,21 +220,60 @@ final class MethodCallHandlerImpl implements MethodChannel.MethodCallHandler {
 
                 break;
             }
-            case "requestPermissions":
-                final List<Integer> permissions = call.arguments();
-                permissionManager.requestPermissions(
+            case "checkPermissionStatusDetails": {
+                @PermissionConstants.PermissionGroup final int permission = parsePermissionGroup(call.arguments);
+                permissionManager.checkPermissionStatusDetails(
+                        permission,
+                        applicationContext,
+                        activity,
+                        (int permissionStatus, boolean refined) -> {
+                            final Map<String, Object> details = new HashMap<>(4);
+                            details.put("status", permissionStatus);
+                            details.put("refined", refined);
+                            result.success(details);
+                        },
+                        (String errorCode, String errorDescription) -> result.error(
+                                errorCode,
+                                errorDescription,
+                                null));
+
+                break;
+            }
+            case "checkNotificationChannelStatuses": {
+                final List<String> channelIds = call.arguments();
+                permissionManager.checkNotificationChannelStatuses(
+                        channelIds,
+                        applicationContext,
+                        activity,
+                        (int notificationStatus, Map<String, Integer> channelImportances) -> {
+                            final Map<String, Object> statuses = new HashMap<>(4);
+                            statuses.put("status", notificationStatus);
+                            statuses.put("channels", channelImportances);
+                            result.success(statuses);
+                        },
+                        (String errorCode, String errorDescription) -> result.error(
+                                errorCode,
+                                errorDescription,
+                                null));
+
+                break;
+            }
+            case "checkPermissionStatuses": {
+                final int[] permissions = PermissionStatusTable.toGroupArray(call.arguments());
+                permissionManager.checkPermissionStatuses(
                         permissions,
+                        applicationContext,
                         activity,
-                        permissionRegistry,
-                        result::success,
+                        (PermissionStatusTable permissionStatuses) -> result.success(permissionStatuses.toMap()),
                         (String errorCode, String errorDescription) -> result.error(
                                 errorCode,
                                 errorDescription,
                                 null));
 
                 break;
+            }
             case "shouldShowRequestPermissionRationale": {
-                @PermissionConstants.PermissionGroup final int permission = Integer.parseInt(call.arguments.toString());
+                @PermissionConstants.PermissionGroup final int permission = parsePermissionGroup(call.arguments);
                 permissionManager.shouldShowRequestPermissionRationale(
                         permission,
                         activity,
@@ -103,9 +285,11 @@ final class MethodCallHandlerImpl implements MethodChannel.MethodCallHandler {
 
                 break;
             }
-            case "openAppSettings":
-                appSettingsManager.openAppSettings(
-                        applicationContext,
+            case "shouldShowRequestPermissionRationales": {
+                final int[] permissions = PermissionStatusTable.toGroupArray(call.arguments());
+                permissionManager.shouldShowRequestPermissionRationales(
+                        permissions,
+                        activity,
                         result::success,
                         (String errorCode, String errorDescription) -> result.error(
                                 errorCode,
@@ -113,9 +297,77 @@ final class MethodCallHandlerImpl implements MethodChannel.MethodCallHandler {
                                 null));
 
                 break;
+            }
+            case "getPermissionSnapshot": {
+                final long sinceVersion = call.arguments instanceof Number
+                        ? ((Number) call.arguments).longValue()
+                        : 0;
+                onGetPermissionSnapshot(sinceVersion, activity, result);
+
+                break;
+            }
             default:
                 result.notImplemented();
                 break;
         }
     }
+
+    /**
+     * Checks every permission status and the status of every service, and replies with the entries
+     * that changed since {@code sinceVersion}.
+     */
+    private void onGetPermissionSnapshot(long sinceVersion, @Nullable Activity activity, final Result result) {
+        final PermissionStatusTable[] statuses = new PermissionStatusTable[2];
+        final ErrorCallback errorCallback = (String errorCode, String errorDescription) -> result.error(
+                errorCode,
+                errorDescription,
+                null);
+
+        permissionManager.checkPermissionStatuses(
+                ALL_PERMISSION_GROUPS,
+                applicationContext,
+                activity,
+                (PermissionStatusTable permissionStatuses) -> statuses[0] = permissionStatuses,
+                errorCallback);
+        if (statuses[0] == null) {
+            return;
+        }
+
+        serviceManager.checkServiceStatuses(
+                SERVICE_PERMISSION_GROUPS,
+                applicationContext,
+                (PermissionStatusTable serviceStatuses) -> statuses[1] = serviceStatuses,
+                errorCallback);
+        if (statuses[1] == null) {
+            return;
+        }
+
+        result.success(snapshotStore.update(statuses[0], statuses[1], sinceVersion));
+    }
+
+    private static int[] allPermissionGroups() {
+        final int[] permissions = new int[PermissionConstants.PERMISSION_GROUP_COUNT];
+        for (int permission = 0; permission < permissions.length; permission++) {
+            permissions[permission] = permission;
+        }
+        return permissions;
+    }
+
+    private static int[] servicePermissionGroups() {
+        int count = 0;
+        for (int permission : ALL_PERMISSION_GROUPS) {
+            if (ServiceManager.hasService(permission)) {
+                count++;
+            }
+        }
+
+        final int[] permissions = new int[count];
+        int index = 0;
+        for (int permission : ALL_PERMISSION_GROUPS) {
+            if (ServiceManager.hasService(permission)) {
+                permissions[index++] = permission;
+            }
+        }
+        return permissions;
+    }
 }
@@ -8,18 +8,33 @@ import java.lang.annotation.RetentionPolicy;
 final class PermissionConstants {
     static final String LOG_TAG = "permissions_handler";
     static final int PERMISSION_CODE = 24;
-    static final int PERMISSION_CODE_IGNORE_BATTERY_OPTIMIZATIONS = 5672353;
+    // Permission dialogs use request codes from PERMISSION_CODE up to and including this value. The
+    // range is kept small to leave the request codes used by other plugins alone.
+    static final int PERMISSION_CODE_MAX = PERMISSION_CODE + 7;
+    // FragmentActivity only accepts request codes of 16 bits, keep clear of the dialog codes above.
+    static final int PERMISSION_CODE_IGNORE_BATTERY_OPTIMIZATIONS = 5672;
 
     //PERMISSION_GROUP
     static final int PERMISSION_GROUP_CAMERA = 1;
+    static final int PERMISSION_GROUP_LOCATION = 3;
+    static final int PERMISSION_GROUP_LOCATION_ALWAYS = 4;
+    static final int PERMISSION_GROUP_LOCATION_WHEN_IN_USE = 5;
+    static final int PERMISSION_GROUP_PHONE = 8;
     static final int PERMISSION_GROUP_PHOTOS = 9;
+    static final int PERMISSION_GROUP_IGNORE_BATTERY_OPTIMIZATIONS = 15;
     static final int PERMISSION_GROUP_NOTIFICATION = 16;
     static final int PERMISSION_GROUP_UNKNOWN = 19;
+    static final int PERMISSION_GROUP_COUNT = PERMISSION_GROUP_UNKNOWN + 1;
 
     @Retention(RetentionPolicy.SOURCE)
     @IntDef({
             PERMISSION_GROUP_CAMERA,
+            PERMISSION_GROUP_LOCATION,
+            PERMISSION_GROUP_LOCATION_ALWAYS,
+            PERMISSION_GROUP_LOCATION_WHEN_IN_USE,
+            PERMISSION_GROUP_PHONE,
             PERMISSION_GROUP_PHOTOS,
+            PERMISSION_GROUP_IGNORE_BATTERY_OPTIMIZATIONS,
             PERMISSION_GROUP_NOTIFICATION,
             PERMISSION_GROUP_UNKNOWN,
     })
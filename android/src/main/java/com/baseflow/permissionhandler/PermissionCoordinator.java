@@ -0,0 +1,62 @@
+package com.baseflow.permissionhandler;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Process wide owner of the state shared by all plugin instances.
+ *
+ * <p>In add to app deployments several Flutter engines can run in the same process, each with its
+ * own plugin instance. They all attach to the same coordinator, so the manifest lookups, status
+ * caches, background thread and the queue of permission requests are shared. Sharing the request
+ * queue ensures engines never show competing system permission dialogs. Replies still go to the
+ * engine that made the call, because every request keeps the result of its own channel.
+ *
+ * <p>The coordinator is reference counted and released once the last plugin instance detaches.
+ */
+final class PermissionCoordinator {
+    private static PermissionCoordinator instance;
+    private static int referenceCount;
+    private static long requestDeadlineMillis = PermissionManager.DEFAULT_REQUEST_DEADLINE_MILLIS;
+
+    final AppSettingsManager appSettingsManager = new AppSettingsManager();
+    final PermissionManager permissionManager = new PermissionManager();
+    final ServiceManager serviceManager = new ServiceManager();
+    final PermissionSnapshotStore snapshotStore = new PermissionSnapshotStore();
+    final ExecutorService backgroundExecutor = Executors.newSingleThreadExecutor(
+            (Runnable runnable) -> new Thread(runnable, "permission_handler"));
+
+    private PermissionCoordinator() {
+    }
+
+    static synchronized PermissionCoordinator acquire() {
+        if (instance == null) {
+            instance = new PermissionCoordinator();
+            instance.permissionManager.setRequestDeadlineMillis(requestDeadlineMillis);
+        }
+
+        referenceCount++;
+        return instance;
+    }
+
+    /**
+     * Sets the permission request deadline of the current and any later coordinator.
+     */
+    static synchronized void setRequestDeadlineMillis(long deadlineMillis) {
+        requestDeadlineMillis = deadlineMillis;
+
+        if (instance != null) {
+            instance.permissionManager.setRequestDeadlineMillis(deadlineMillis);
+        }
+    }
+
+    static synchronized void release(PermissionCoordinator coordinator) {
+        if (coordinator != instance || --referenceCount > 0) {
+            return;
+        }
+
+        instance = null;
+        coordinator.serviceManager.dispose();
+        coordinator.backgroundExecutor.shutdown();
+    }
+}
@@ -2,15 +2,20 @@ package com.baseflow.permissionhandler;
 
 import android.app.Activity;
 import android.content.Context;
+import android.util.Log;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
-import com.baseflow.permissionhandler.PermissionManager.PermissionRegistry;
 import io.flutter.embedding.engine.plugins.FlutterPlugin;
 import io.flutter.embedding.engine.plugins.activity.ActivityAware;
 import io.flutter.embedding.engine.plugins.activity.ActivityPluginBinding;
+import io.flutter.plugin.common.BasicMessageChannel;
+import io.flutter.plugin.common.BinaryCodec;
 import io.flutter.plugin.common.BinaryMessenger;
+import io.flutter.plugin.common.EventChannel;
 import io.flutter.plugin.common.MethodChannel;
 import io.flutter.plugin.common.PluginRegistry.Registrar;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ExecutorService;
 
 /**
  * Platform implementation of the permission_handler Flutter plugin.
@@ -24,10 +29,67 @@ import io.flutter.plugin.common.PluginRegistry.Registrar;
 public final class PermissionHandlerPlugin implements FlutterPlugin, ActivityAware {
 
     private MethodChannel methodChannel;
+    private EventChannel statusEventChannel;
+    private EventChannel serviceStatusEventChannel;
+    private BasicMessageChannel<ByteBuffer> statusQueryChannel;
 
     @Nullable
     private MethodCallHandlerImpl methodCallHandler;
 
+    @Nullable
+    private PermissionStatusStreamHandler statusStreamHandler;
+
+    @Nullable
+    private StatusQueryMessageHandler statusQueryHandler;
+
+    @Nullable
+    private PermissionManager permissionManager;
+
+    @Nullable
+    private ServiceManager serviceManager;
+
+    @Nullable
+    private ActivityResumeListener activityResumeListener;
+
+    @Nullable
+    private PermissionManager.RequestPermissionsListener requestPermissionsListener;
+
+    @Nullable
+    private PermissionManager.ActivityResultListener activityResultListener;
+
+    @Nullable
+    private ActivityPluginBinding activityBinding;
+
+    @Nullable
+    private ServiceStatusStreamHandler serviceStatusStreamHandler;
+
+    @Nullable
+    private PermissionCoordinator coordinator;
+
+    private static volatile boolean warmUpEnabled = false;
+
+    /**
+     * Enables loading the plugin state on a background thread as soon as the plugin is attached to
+     * an engine, instead of on the first call from Dart. Call this before the engine is created.
+     *
+     * <p>This moves the first read of the shared preferences, the first package manager query and
+     * the lookup of the notification manager off the first permission check.
+     */
+    public static void setWarmUpEnabled(boolean enabled) {
+        warmUpEnabled = enabled;
+    }
+
+    /**
+     * Sets the time a permission request may wait for the result of the system dialog. When no
+     * result arrives in time, for example because the activity showing the dialog was destroyed,
+     * the request completes with the statuses the system reports at that moment.
+     *
+     * <p>Applies to dialogs shown afterwards, including those of engines that are already attached.
+     */
+    public static void setRequestDeadlineMillis(long deadlineMillis) {
+        PermissionCoordinator.setRequestDeadlineMillis(deadlineMillis);
+    }
+
     /**
      * Registers a plugin implementation that uses the stable {@code io.flutter.plugin.common}
      * package.
@@ -40,10 +102,12 @@ public final class PermissionHandlerPlugin implements FlutterPlugin, ActivityAwa
         plugin.startListening(registrar.context(), registrar.messenger());
 
         if (registrar.activeContext() instanceof Activity) {
-            plugin.startListeningToActivity(
-                registrar.activity(),
-                registrar::addRequestPermissionsResultListener
-            );
+            plugin.startListeningToActivity(registrar.activity());
+
+            if (plugin.requestPermissionsListener != null) {
+                registrar.addRequestPermissionsResultListener(plugin.requestPermissionsListener);
+                registrar.addActivityResultListener(plugin.activityResultListener);
+            }
         }
     }
 
@@ -62,10 +126,13 @@ public final class PermissionHandlerPlugin implements FlutterPlugin, ActivityAwa
 
     @Override
     public void onAttachedToActivity(@NonNull ActivityPluginBinding binding) {
-        startListeningToActivity(
-            binding.getActivity(),
-            binding::addRequestPermissionsResultListener
-        );
+        activityBinding = binding;
+        startListeningToActivity(binding.getActivity());
+
+        if (requestPermissionsListener != null) {
+            binding.addRequestPermissionsResultListener(requestPermissionsListener);
+            binding.addActivityResultListener(activityResultListener);
+        }
     }
 
     @Override
@@ -75,50 +142,202 @@ public final class PermissionHandlerPlugin implements FlutterPlugin, ActivityAwa
 
     @Override
     public void onDetachedFromActivity() {
-        stopListeningToActivity();
+        // Requests of an activity that is gone for good will never receive their result.
+        if (activityBinding != null && permissionManager != null) {
+            permissionManager.onActivityDetached(activityBinding.getActivity());
+        }
+
+        detachFromActivity();
     }
 
     @Override
     public void onDetachedFromActivityForConfigChanges() {
-        onDetachedFromActivity();
+        // The result of an ongoing request is delivered to the recreated activity.
+        detachFromActivity();
+    }
+
+    private void detachFromActivity() {
+        if (activityBinding != null && requestPermissionsListener != null) {
+            activityBinding.removeRequestPermissionsResultListener(requestPermissionsListener);
+            activityBinding.removeActivityResultListener(activityResultListener);
+        }
+        activityBinding = null;
+
+        stopListeningToActivity();
     }
 
 
+
     private void startListening(Context applicationContext, BinaryMessenger messenger) {
         methodChannel = new MethodChannel(
             messenger,
             "flutter.baseflow.com/permissions/methods");
 
+        coordinator = PermissionCoordinator.acquire();
+        permissionManager = coordinator.permissionManager;
+        serviceManager = coordinator.serviceManager;
+        final ExecutorService backgroundExecutor = coordinator.backgroundExecutor;
+
         methodCallHandler = new MethodCallHandlerImpl(
             applicationContext,
-            new AppSettingsManager(),
-            new PermissionManager(),
-            new ServiceManager()
+            coordinator.appSettingsManager,
+            permissionManager,
+            serviceManager,
+            coordinator.snapshotStore,
+            backgroundExecutor
         );
 
         methodChannel.setMethodCallHandler(methodCallHandler);
+
+        if (warmUpEnabled) {
+            // Runs ahead of any call handled on the background executor, the managers block
+            // callers on other threads until the state they share has been loaded.
+            final PermissionManager permissionManager = this.permissionManager;
+            backgroundExecutor.execute(() -> {
+                try {
+                    permissionManager.warmUp(applicationContext);
+                } catch (RuntimeException e) {
+                    Log.d(PermissionConstants.LOG_TAG, "Unable to warm up the plugin state: ", e);
+                }
+            });
+        }
+
+        statusEventChannel = new EventChannel(
+            messenger,
+            "flutter.baseflow.com/permissions/status_changes");
+
+        statusStreamHandler = new PermissionStatusStreamHandler(
+            applicationContext,
+            permissionManager,
+            backgroundExecutor
+        );
+
+        statusEventChannel.setStreamHandler(statusStreamHandler);
+
+        serviceStatusEventChannel = new EventChannel(
+            messenger,
+            "flutter.baseflow.com/permissions/service_status_changes");
+
+        serviceStatusStreamHandler = new ServiceStatusStreamHandler(
+            applicationContext,
+            serviceManager,
+            backgroundExecutor
+        );
+
+        serviceStatusEventChannel.setStreamHandler(serviceStatusStreamHandler);
+
+        statusQueryChannel = new BasicMessageChannel<>(
+            messenger,
+            "flutter.baseflow.com/permissions/status_queries",
+            BinaryCodec.INSTANCE);
+
+        statusQueryHandler = new StatusQueryMessageHandler(
+            applicationContext,
+            permissionManager,
+            serviceManager,
+            backgroundExecutor
+        );
+
+        statusQueryChannel.setMessageHandler(statusQueryHandler);
     }
 
     private void stopListening() {
         methodChannel.setMethodCallHandler(null);
         methodChannel = null;
         methodCallHandler = null;
+        statusEventChannel.setStreamHandler(null);
+        statusEventChannel = null;
+        serviceStatusEventChannel.setStreamHandler(null);
+        serviceStatusEventChannel = null;
+
+        // The managers outlive this engine when other engines are still attached, make sure they
+        // no longer reference this engine's streams.
+        if (statusStreamHandler != null) {
+            statusStreamHandler.onCancel(null);
+            statusStreamHandler = null;
+        }
+
+        if (serviceStatusStreamHandler != null) {
+            serviceStatusStreamHandler.onCancel(null);
+            serviceStatusStreamHandler = null;
+        }
+
+        statusQueryChannel.setMessageHandler(null);
+        statusQueryChannel = null;
+        statusQueryHandler = null;
+        permissionManager = null;
+        serviceManager = null;
+
+        if (coordinator != null) {
+            PermissionCoordinator.release(coordinator);
+            coordinator = null;
+        }
     }
 
-    private void startListeningToActivity(
-        Activity activity,
-        PermissionRegistry permissionRegistry
-    ) {
+    private void startListeningToActivity(Activity activity) {
         if (methodCallHandler != null) {
             methodCallHandler.setActivity(activity);
-            methodCallHandler.setPermissionRegistry(permissionRegistry);
+        }
+
+        if (statusStreamHandler != null) {
+            statusStreamHandler.setActivity(activity);
+        }
+
+        if (statusQueryHandler != null) {
+            statusQueryHandler.setActivity(activity);
+        }
+
+        if (activityResumeListener != null) {
+            activityResumeListener.unregister();
+        }
+
+        final PermissionManager permissionManager = this.permissionManager;
+        if (permissionManager != null && activity != null) {
+            activityResumeListener = ActivityResumeListener.register(
+                activity,
+                permissionManager::invalidateStatusCache
+            );
+
+            // One listener of each kind per activity binding, the permission manager matches each
+            // result to the request that produced it by request code. Requests still in flight across a
+            // configuration change are completed through the listener of the new binding.
+            requestPermissionsListener = new PermissionManager.RequestPermissionsListener(
+                activity,
+                permissionManager
+            );
+            activityResultListener = new PermissionManager.ActivityResultListener(
+                activity,
+                permissionManager
+            );
         }
     }
 
     private void stopListeningToActivity() {
         if (methodCallHandler != null) {
             methodCallHandler.setActivity(null);
-            methodCallHandler.setPermissionRegistry(null);
+        }
+
+        if (statusStreamHandler != null) {
+            statusStreamHandler.setActivity(null);
+        }
+
+        if (statusQueryHandler != null) {
+            statusQueryHandler.setActivity(null);
+        }
+
+        if (activityResumeListener != null) {
+            activityResumeListener.unregister();
+            activityResumeListener = null;
+        }
+
+        if (requestPermissionsListener != null) {
+            requestPermissionsListener.release();
+            requestPermissionsListener = null;
+        }
+
+        if (activityResultListener != null) {
+            activityResultListener.release();
+            activityResultListener = null;
         }
     }
 }
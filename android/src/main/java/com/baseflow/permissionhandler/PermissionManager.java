@@ -1,6 +1,8 @@
 package com.baseflow.permissionhandler;
 
 import android.app.Activity;
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
 import android.content.Context;
 import android.content.Intent;
 import android.content.pm.PackageManager;
@@ -10,27 +12,31 @@ import android.os.PowerManager;
 import android.provider.Settings;
 import android.util.Log;
 
+import androidx.annotation.Nullable;
+import androidx.annotation.RequiresApi;
 import androidx.annotation.VisibleForTesting;
 import androidx.core.app.ActivityCompat;
 import androidx.core.app.NotificationManagerCompat;
 import androidx.core.content.ContextCompat;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import io.flutter.plugin.common.PluginRegistry;
 
 final class PermissionManager {
-    @FunctionalInterface
-    interface PermissionRegistry {
-        void addListener(PluginRegistry.RequestPermissionsResultListener handler);
-    }
-
     @FunctionalInterface
     interface RequestPermissionsSuccessCallback {
-        void onSuccess(Map<Integer, Integer> results);
+        void onSuccess(PermissionStatusTable results);
     }
 
     @FunctionalInterface
@@ -38,47 +44,233 @@ final class PermissionManager {
         void onSuccess(@PermissionConstants.PermissionStatus int permissionStatus);
     }
 
+    @FunctionalInterface
+    interface CheckPermissionDetailsSuccessCallback {
+        void onSuccess(@PermissionConstants.PermissionStatus int permissionStatus, boolean refined);
+    }
+
+    @FunctionalInterface
+    interface CheckPermissionsBatchSuccessCallback {
+        void onSuccess(PermissionStatusTable permissionStatuses);
+    }
+
+    @FunctionalInterface
+    interface CheckNotificationChannelsSuccessCallback {
+        void onSuccess(
+                @PermissionConstants.PermissionStatus int notificationStatus,
+                Map<String, Integer> channelImportances);
+    }
+
+    @FunctionalInterface
+    interface StatusCacheListener {
+        void onStatusCacheInvalidated();
+    }
+
     @FunctionalInterface
     interface ShouldShowRequestPermissionRationaleSuccessCallback {
         void onSuccess(boolean shouldShowRequestPermissionRationale);
     }
 
-    private boolean ongoing = false;
+    @FunctionalInterface
+    interface ShouldShowRequestPermissionRationaleBatchSuccessCallback {
+        void onSuccess(Map<Integer, Boolean> shouldShowRequestPermissionRationales);
+    }
+
+    // Set on an evaluated status that would need an activity to tell denied apart from never ask
+    // again. Such statuses are reported as denied.
+    private static final int STATUS_UNREFINED = 0x100;
+
+    // Status checks run on a background thread, the cache is safe to use from any thread.
+    private final PermissionStatusCache statusCache = new PermissionStatusCache();
+    private final List<StatusCacheListener> statusCacheListeners = new CopyOnWriteArrayList<>();
+
+    // A request that doesn't receive a result within this time is abandoned. The system dialog
+    // stays open while the user decides, so the default is generous.
+    static final long DEFAULT_REQUEST_DEADLINE_MILLIS = 5 * 60 * 1000;
+
+    // Permission requests are only handled on the platform thread.
+    private final Queue<PendingRequest> pendingRequests = new ArrayDeque<>();
+    private final DeadlineScheduler deadlineScheduler;
+
+    @Nullable
+    private OngoingDialog ongoingDialog;
+
+    private int nextRequestCode = PermissionConstants.PERMISSION_CODE;
+    // Request codes of abandoned dialogs whose result may still arrive, indexed from
+    // PERMISSION_CODE. Only results with these codes are taken for late results.
+    private final boolean[] abandonedRequestCodes =
+            new boolean[PermissionConstants.PERMISSION_CODE_MAX - PermissionConstants.PERMISSION_CODE + 1];
+    private volatile long requestDeadlineMillis = DEFAULT_REQUEST_DEADLINE_MILLIS;
+
+    @Nullable
+    private volatile NotificationManagerCompat notificationManager;
+
+    @Nullable
+    private volatile NotificationManager platformNotificationManager;
+
+    @Nullable
+    private volatile ChannelImportances channelImportances;
+
+    @Nullable
+    private volatile PowerManager powerManager;
+
+    PermissionManager() {
+        this(new DeadlineScheduler.MainThread());
+    }
+
+    @VisibleForTesting
+    PermissionManager(DeadlineScheduler deadlineScheduler) {
+        this.deadlineScheduler = deadlineScheduler;
+    }
+
+    /**
+     * Sets the time a permission request may wait for the result of its system dialog before it
+     * is abandoned. Applies to dialogs shown afterwards.
+     */
+    void setRequestDeadlineMillis(long requestDeadlineMillis) {
+        this.requestDeadlineMillis = requestDeadlineMillis;
+    }
+
+    /**
+     * Drops all cached permission statuses, the next check will query the system again.
+     */
+    void invalidateStatusCache() {
+        statusCache.invalidate();
+
+        for (StatusCacheListener listener : statusCacheListeners) {
+            listener.onStatusCacheInvalidated();
+        }
+    }
+
+    void addStatusCacheListener(StatusCacheListener listener) {
+        statusCacheListeners.add(listener);
+    }
+
+    void removeStatusCacheListener(StatusCacheListener listener) {
+        statusCacheListeners.remove(listener);
+    }
+
+    /**
+     * Returns the cached status of the supplied group, or {@link PermissionStatusCache#NO_STATUS}
+     * when it has to be determined by {@link #checkPermissionStatus}. Doesn't allocate.
+     */
+    @PermissionConstants.PermissionStatus
+    int getCachedPermissionStatus(@PermissionConstants.PermissionGroup int permission, @Nullable Activity activity) {
+        if (activity == null || !PermissionStatusTable.isValidGroup(permission)) {
+            return PermissionStatusCache.NO_STATUS;
+        }
+
+        return statusCache.get(permission);
+    }
 
+    /**
+     * Checks the status of the supplied group. Without an activity the best available answer is
+     * reported, a denied permission is then never refined to never ask again.
+     */
     void checkPermissionStatus(
             @PermissionConstants.PermissionGroup int permission,
             Context context,
-            Activity activity,
+            @Nullable Activity activity,
             CheckPermissionsSuccessCallback successCallback,
             ErrorCallback errorCallback) {
 
-        if(activity == null) {
-            Log.d(PermissionConstants.LOG_TAG, "Activity cannot be null.");
+        successCallback.onSuccess(withoutRefinementFlag(determinePermissionStatus(
+                permission,
+                context,
+                activity)));
+    }
+
+    /**
+     * Checks the status of the supplied group and reports whether it could be refined, which
+     * requires an activity only when the permission has been denied before.
+     */
+    void checkPermissionStatusDetails(
+            @PermissionConstants.PermissionGroup int permission,
+            Context context,
+            @Nullable Activity activity,
+            CheckPermissionDetailsSuccessCallback successCallback,
+            ErrorCallback errorCallback) {
+
+        final int permissionStatus = determinePermissionStatus(permission, context, activity);
+        successCallback.onSuccess(
+                withoutRefinementFlag(permissionStatus),
+                (permissionStatus & STATUS_UNREFINED) == 0);
+    }
+
+    /**
+     * Checks whether the application may post notifications and the importance of each of the
+     * supplied notification channels. With an activity, importances are cached together with the
+     * permission statuses, so they are queried again once the activity resumes. Without one they
+     * are always queried.
+     *
+     * <p>A channel that doesn't exist is reported as
+     * {@link NotificationManager#IMPORTANCE_UNSPECIFIED}. Before Android O, where channels don't
+     * exist, every channel reports the importance implied by the application wide setting.
+     */
+    void checkNotificationChannelStatuses(
+            List<String> channelIds,
+            Context context,
+            @Nullable Activity activity,
+            CheckNotificationChannelsSuccessCallback successCallback,
+            ErrorCallback errorCallback) {
+        if (context == null) {
+            Log.d(PermissionConstants.LOG_TAG, "Context cannot be null.");
             errorCallback.onError(
                     "PermissionHandler.PermissionManager",
-                    "Android activity is required to check for permissions and cannot be null.");
+                    "Android context cannot be null.");
             return;
         }
 
-        successCallback.onSuccess(determinePermissionStatus(
-                permission,
+        final int generation = statusCache.generation();
+        @PermissionConstants.PermissionStatus final int notificationStatus = withoutRefinementFlag(determinePermissionStatus(
+                PermissionConstants.PERMISSION_GROUP_NOTIFICATION,
                 context,
                 activity));
+
+        final Map<String, Integer> importances = new HashMap<>(channelIds.size() * 4 / 3 + 1);
+        for (String channelId : channelIds) {
+            if (Build.VERSION.SDK_INT < Build.VERSION_CODES.O) {
+                importances.put(channelId, notificationStatus == PermissionConstants.PERMISSION_STATUS_GRANTED
+                        ? NotificationManager.IMPORTANCE_DEFAULT
+                        : NotificationManager.IMPORTANCE_NONE);
+                continue;
+            }
+
+            importances.put(channelId, getChannelImportance(channelId, context, activity != null, generation));
+        }
+
+        successCallback.onSuccess(notificationStatus, importances);
+    }
+
+    void checkPermissionStatuses(
+            int[] permissions,
+            Context context,
+            @Nullable Activity activity,
+            CheckPermissionsBatchSuccessCallback successCallback,
+            ErrorCallback errorCallback) {
+
+        final boolean targetsMOrHigher = targetsMOrHigher(context);
+        final PermissionStatusTable permissionStatuses = new PermissionStatusTable();
+        for (int permission : permissions) {
+            if (permissionStatuses.contains(permission)) {
+                continue;
+            }
+
+            permissionStatuses.putIfAbsent(permission, withoutRefinementFlag(determinePermissionStatus(
+                    permission,
+                    context,
+                    activity,
+                    targetsMOrHigher)));
+        }
+
+        successCallback.onSuccess(permissionStatuses);
     }
 
     void requestPermissions(
-            List<Integer> permissions,
+            int[] permissions,
             Activity activity,
-            PermissionRegistry permissionRegistry,
             RequestPermissionsSuccessCallback successCallback,
             ErrorCallback errorCallback) {
-        if(ongoing) {
-            errorCallback.onError(
-                    "PermissionHandler.PermissionManager",
-                    "A request for permissions is already running, please wait for it to finish before doing another request (note that you can request multiple permissions at the same time).");
-            return;
-        }
-
         if (activity == null) {
             Log.d(PermissionConstants.LOG_TAG, "Unable to detect current Activity.");
 
@@ -88,68 +280,439 @@ final class PermissionManager {
             return;
         }
 
-        Map<Integer, Integer> requestResults = new HashMap<>();
-        ArrayList<String> permissionsToRequest = new ArrayList<>();
-        for (Integer permission : permissions) {
-            @PermissionConstants.PermissionStatus final int permissionStatus = determinePermissionStatus(permission, activity, activity);
-            if (permissionStatus == PermissionConstants.PERMISSION_STATUS_GRANTED) {
-                if (!requestResults.containsKey(permission)) {
-                    requestResults.put(permission, PermissionConstants.PERMISSION_STATUS_GRANTED);
-                }
+        final PendingRequest request = new PendingRequest(
+                permissions,
+                activity,
+                successCallback);
+
+        // A request overlapping the dialog on screen is answered from its outcome rather than
+        // showing the same dialog again right after it.
+        final OngoingDialog dialog = ongoingDialog;
+        if (dialog != null && dialog.activity == activity) {
+            if (dialog.covers(permissions)) {
+                request.moveTo(PendingRequest.STATE_DIALOG_SHOWN);
+                dialog.requests.add(request);
+                return;
+            }
+
+            request.answeredBy = dialog;
+        }
+
+        pendingRequests.add(request);
+
+        if (ongoingDialog == null) {
+            dispatchPendingRequests();
+        }
+    }
+
+    /**
+     * Takes the queued requests that can share a single system dialog and shows it. Requests are
+     * served in the order they were made, a request for another activity starts a new dialog.
+     */
+    private void dispatchPendingRequests() {
+        while (ongoingDialog == null && !pendingRequests.isEmpty()) {
+            final PendingRequest head = pendingRequests.peek();
+            final List<PendingRequest> requests = new ArrayList<>();
+            while (!pendingRequests.isEmpty() && pendingRequests.peek().canShareDialogWith(head)) {
+                requests.add(pendingRequests.poll());
+            }
+
+            final Activity activity = head.activity;
+            if (isActivityGone(activity)) {
+                Log.d(PermissionConstants.LOG_TAG, "Abandoning permission request, its activity is no longer available.");
+                abandonRequests(requests, new PermissionStatusTable());
                 continue;
             }
 
-            final List<String> names = PermissionUtils.getManifestNames(activity, permission);
+            final boolean targetsMOrHigher = targetsMOrHigher(activity);
+            final PermissionStatusTable requestResults = new PermissionStatusTable();
+            final Set<String> permissionsToRequest = new LinkedHashSet<>();
+            boolean requestIgnoreBatteryOptimizations = false;
+            for (PendingRequest request : requests) {
+                for (int permission : request.permissions) {
+                    if (requestResults.contains(permission)) {
+                        continue;
+                    }
 
-            // check to see if we can find manifest names
-            // if we can't add as unknown and continue
-            if (names == null || names.isEmpty()) {
-                if (!requestResults.containsKey(permission)) {
-                    requestResults.put(permission, PermissionConstants.PERMISSION_STATUS_NOT_DETERMINED);
+                    final OngoingDialog answeredBy = request.answeredBy;
+                    if (answeredBy != null && answeredBy.requestResults.contains(permission)) {
+                        requestResults.putIfAbsent(permission, answeredBy.requestResults.get(permission));
+                        continue;
+                    }
+
+                    @PermissionConstants.PermissionStatus final int permissionStatus = determinePermissionStatus(permission, activity, activity, targetsMOrHigher);
+                    if (permissionStatus == PermissionConstants.PERMISSION_STATUS_GRANTED
+                            || permissionStatus == PermissionConstants.PERMISSION_STATUS_RESTRICTED) {
+                        requestResults.putIfAbsent(permission, permissionStatus);
+                        continue;
+                    }
+
+                    final List<String> names = PermissionUtils.getManifestNames(activity, permission);
+
+                    // check to see if we can find manifest names
+                    // if we can't add as unknown and continue
+                    if (names == null || names.isEmpty()) {
+                        requestResults.putIfAbsent(permission, PermissionConstants.PERMISSION_STATUS_NOT_DETERMINED);
+
+                        continue;
+                    }
+
+                    // The exemption isn't a runtime permission, it is asked for through a system
+                    // screen once the runtime permission dialog, if any, has been answered.
+                    if (permission == PermissionConstants.PERMISSION_GROUP_IGNORE_BATTERY_OPTIMIZATIONS) {
+                        requestIgnoreBatteryOptimizations = true;
+                        continue;
+                    }
+
+                    permissionsToRequest.addAll(names);
                 }
+            }
 
+            if (permissionsToRequest.isEmpty() && !requestIgnoreBatteryOptimizations) {
+                completeRequests(requests, requestResults, PendingRequest.STATE_COMPLETED);
                 continue;
             }
 
-            permissionsToRequest.addAll(names);
+            for (PendingRequest request : requests) {
+                request.moveTo(PendingRequest.STATE_DIALOG_SHOWN);
+            }
+
+            final OngoingDialog dialog = new OngoingDialog(
+                    allocateRequestCode(),
+                    activity,
+                    requests,
+                    requestResults,
+                    deadlineScheduler.uptimeMillis() + requestDeadlineMillis);
+            dialog.deadlineTask = () -> onRequestDeadline(dialog);
+            dialog.requestedNames = new ArrayList<>(permissionsToRequest);
+            dialog.awaitingPermissionsResult = !permissionsToRequest.isEmpty();
+            dialog.awaitingIgnoreBatteryOptimizationsResult = requestIgnoreBatteryOptimizations;
+            ongoingDialog = dialog;
+            deadlineScheduler.schedule(dialog.deadlineTask, requestDeadlineMillis);
+
+            if (dialog.awaitingPermissionsResult) {
+                ActivityCompat.requestPermissions(
+                        activity,
+                        permissionsToRequest.toArray(new String[0]),
+                        dialog.requestCode);
+            } else {
+                requestIgnoreBatteryOptimizations(dialog);
+            }
         }
+    }
 
-        final String[] requestPermissions = permissionsToRequest.toArray(new String[0]);
-        if (permissionsToRequest.size() > 0) {
-            permissionRegistry.addListener(
-                    new RequestPermissionsListener(
-                            activity,
-                            requestResults,
-                            (Map<Integer, Integer> results) -> {
-                                ongoing = false;
-                                successCallback.onSuccess(results);
-                            })
-            );
+    private void requestIgnoreBatteryOptimizations(OngoingDialog dialog) {
+        final Intent intent = new Intent();
+        intent.setAction(Settings.ACTION_REQUEST_IGNORE_BATTERY_OPTIMIZATIONS);
+        intent.setData(Uri.parse("package:" + dialog.activity.getPackageName()));
 
-            ongoing = true;
+        try {
+            dialog.activity.startActivityForResult(
+                    intent,
+                    PermissionConstants.PERMISSION_CODE_IGNORE_BATTERY_OPTIMIZATIONS);
+        } catch (Exception ex) {
+            Log.d(PermissionConstants.LOG_TAG, "Unable to request to ignore battery optimizations: ", ex);
+            dialog.awaitingIgnoreBatteryOptimizationsResult = false;
+            dialog.requestResults.putIfAbsent(
+                    PermissionConstants.PERMISSION_GROUP_IGNORE_BATTERY_OPTIMIZATIONS,
+                    checkIgnoreBatteryOptimizationsStatus(dialog.activity));
+            finishOngoingDialog(dialog);
+        }
+    }
 
-            ActivityCompat.requestPermissions(
-                    activity,
-                    requestPermissions,
-                    PermissionConstants.PERMISSION_CODE);
+    /**
+     * Handles the result of a system permission dialog, delivered through the
+     * {@link RequestPermissionsListener} of the activity that showed it. Returns {@code false}
+     * when the result doesn't belong to the ongoing dialog.
+     */
+    boolean onRequestPermissionsResult(Activity activity, int requestCode, String[] permissions, int[] grantResults) {
+        final OngoingDialog dialog = ongoingDialog;
+        if (dialog == null || !dialog.awaitingPermissionsResult || dialog.requestCode != requestCode) {
+            if (isAbandonedRequestCode(requestCode)) {
+                // A late result of a dialog that was abandoned, the statuses it reports may have
+                // changed since they were last evaluated.
+                abandonedRequestCodes[requestCode - PermissionConstants.PERMISSION_CODE] = false;
+                invalidateStatusCache();
+            }
+            return false;
+        }
+
+        // Another plugin may use the same request code, its result names permissions this dialog
+        // didn't ask for. An interrupted request reports no permissions at all.
+        for (String permissionName : permissions) {
+            if (!dialog.requestedNames.contains(permissionName)) {
+                return false;
+            }
+        }
+
+        dialog.awaitingPermissionsResult = false;
+
+        final PermissionStatusTable requestResults = dialog.requestResults;
+        final List<String> requestedNames = new ArrayList<>();
+        for (int i = 0; i < permissions.length; i++) {
+            final String permissionName = permissions[i];
+
+            @PermissionConstants.PermissionGroup final int permission =
+                    PermissionUtils.parseManifestName(permissionName);
+
+            if (permission == PermissionConstants.PERMISSION_GROUP_UNKNOWN)
+                continue;
+
+            final int result = grantResults[i];
+
+            if (requestResults.contains(permission)) {
+                continue;
+            }
+
+            requestResults.putIfAbsent(
+                    permission,
+                    PermissionUtils.toPermissionStatus(activity, permissionName, result));
+
+            final List<String> names = PermissionUtils.getManifestNames(activity, permission);
+            if (names != null) {
+                requestedNames.addAll(names);
+            }
+        }
+
+        PermissionUtils.updatePermissionShouldShowStatus(activity, requestedNames);
+
+        if (dialog.awaitingIgnoreBatteryOptimizationsResult) {
+            requestIgnoreBatteryOptimizations(dialog);
         } else {
-            ongoing = false;
-            if (requestResults.size() > 0) {
-                successCallback.onSuccess(requestResults);
+            finishOngoingDialog(dialog);
+        }
+        return true;
+    }
+
+    /**
+     * Handles the result of the system screen asking to ignore battery optimizations, delivered
+     * through the {@link ActivityResultListener} of the activity that showed it. Returns
+     * {@code false} when the result doesn't belong to the ongoing request.
+     */
+    boolean onActivityResult(Activity activity, int requestCode) {
+        final OngoingDialog dialog = ongoingDialog;
+        if (dialog == null
+                || !dialog.awaitingIgnoreBatteryOptimizationsResult
+                || requestCode != PermissionConstants.PERMISSION_CODE_IGNORE_BATTERY_OPTIMIZATIONS) {
+            return false;
+        }
+
+        dialog.awaitingIgnoreBatteryOptimizationsResult = false;
+
+        // The result code doesn't tell whether the user allowed the exemption on every device,
+        // ask the power manager instead.
+        dialog.requestResults.putIfAbsent(
+                PermissionConstants.PERMISSION_GROUP_IGNORE_BATTERY_OPTIMIZATIONS,
+                checkIgnoreBatteryOptimizationsStatus(activity));
+
+        finishOngoingDialog(dialog);
+        return true;
+    }
+
+    private void finishOngoingDialog(OngoingDialog dialog) {
+        ongoingDialog = null;
+        deadlineScheduler.cancel(dialog.deadlineTask);
+
+        invalidateStatusCache();
+
+        // An interrupted request, for example by a configuration change, is reported with empty
+        // results. Groups missing from the result get the status the system reports now.
+        putCurrentStatuses(dialog.requests, dialog.requestResults);
+        completeRequests(dialog.requests, dialog.requestResults, PendingRequest.STATE_COMPLETED);
+        dispatchPendingRequests();
+    }
+
+    /**
+     * Abandons the requests made through the supplied activity when it goes away for good. The
+     * result of a dialog shown by a finishing activity is never delivered. Activities that are
+     * only detached from this plugin instance may still deliver it, those are left to the deadline.
+     */
+    void onActivityDetached(Activity activity) {
+        if (!isActivityGone(activity)) {
+            return;
+        }
+
+        final OngoingDialog dialog = ongoingDialog;
+        if (dialog != null && dialog.activity == activity) {
+            Log.d(PermissionConstants.LOG_TAG, "Abandoning permission request, its activity was destroyed.");
+            abandonOngoingDialog(dialog);
+        }
+    }
+
+    private void onRequestDeadline(OngoingDialog dialog) {
+        if (ongoingDialog != dialog || deadlineScheduler.uptimeMillis() < dialog.deadlineUptimeMillis) {
+            return;
+        }
+
+        Log.d(PermissionConstants.LOG_TAG, "Abandoning permission request, no result was received in time.");
+        abandonOngoingDialog(dialog);
+    }
+
+    private void abandonOngoingDialog(OngoingDialog dialog) {
+        ongoingDialog = null;
+        deadlineScheduler.cancel(dialog.deadlineTask);
+
+        // The dialog may never have been answered. Only a name the system wants a rationale for
+        // was denied in it, recording any other name would report it as never ask again.
+        if (dialog.awaitingPermissionsResult) {
+            abandonedRequestCodes[dialog.requestCode - PermissionConstants.PERMISSION_CODE] = true;
+            PermissionUtils.updatePermissionShouldShowStatus(
+                    dialog.activity,
+                    getDeniedNames(dialog.activity, dialog.requestedNames));
+        }
+
+        abandonRequests(dialog.requests, dialog.requestResults);
+        dispatchPendingRequests();
+    }
+
+    private static List<String> getDeniedNames(Activity activity, List<String> names) {
+        final List<String> deniedNames = new ArrayList<>();
+        for (String name : names) {
+            final long startNanos = PluginDiagnostics.start();
+            final boolean shouldShowRequestPermissionRationale = ActivityCompat.shouldShowRequestPermissionRationale(activity, name);
+            PluginDiagnostics.recordBinderCall(PluginDiagnostics.BINDER_SHOULD_SHOW_RATIONALE, startNanos);
+            if (shouldShowRequestPermissionRationale) {
+                deniedNames.add(name);
             }
         }
+        return deniedNames;
+    }
+
+    /**
+     * Completes requests that will never receive a dialog result with the statuses the system
+     * reports now, the user may have answered the dialog before its result got lost.
+     */
+    private void abandonRequests(List<PendingRequest> requests, PermissionStatusTable knownResults) {
+        invalidateStatusCache();
+        putCurrentStatuses(requests, knownResults);
+        completeRequests(requests, knownResults, PendingRequest.STATE_ABANDONED);
+    }
+
+    /**
+     * Adds the current status of every group the requests asked for that has no known result.
+     */
+    private void putCurrentStatuses(List<PendingRequest> requests, PermissionStatusTable knownResults) {
+        final Activity activity = requests.get(0).activity;
+        final boolean targetsMOrHigher = targetsMOrHigher(activity);
+        for (PendingRequest request : requests) {
+            for (int permission : request.permissions) {
+                if (knownResults.contains(permission)) {
+                    continue;
+                }
+
+                knownResults.putIfAbsent(permission, determinePermissionStatus(
+                        permission,
+                        activity,
+                        activity,
+                        targetsMOrHigher));
+            }
+        }
+    }
+
+    private static boolean isActivityGone(Activity activity) {
+        return activity.isFinishing()
+                || (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1 && activity.isDestroyed());
+    }
+
+    /**
+     * Dialogs cycle through a small range of request codes, so a late result of an earlier
+     * dialog is only taken for the result of the current one after the whole range was used.
+     */
+    private int allocateRequestCode() {
+        final int requestCode = nextRequestCode;
+        nextRequestCode = requestCode < PermissionConstants.PERMISSION_CODE_MAX
+                ? requestCode + 1
+                : PermissionConstants.PERMISSION_CODE;
+        abandonedRequestCodes[requestCode - PermissionConstants.PERMISSION_CODE] = false;
+        return requestCode;
+    }
+
+    private boolean isAbandonedRequestCode(int requestCode) {
+        return requestCode >= PermissionConstants.PERMISSION_CODE
+                && requestCode <= PermissionConstants.PERMISSION_CODE_MAX
+                && abandonedRequestCodes[requestCode - PermissionConstants.PERMISSION_CODE];
+    }
+
+    /**
+     * Completes each request with the statuses of the groups it asked for, taken from the
+     * outcome shared by all requests that were served by the same dialog. A request that already
+     * reached a final state is never completed again.
+     */
+    private static void completeRequests(
+            List<PendingRequest> requests,
+            PermissionStatusTable outcome,
+            int finalState) {
+        for (PendingRequest request : requests) {
+            if (!request.moveTo(finalState)) {
+                continue;
+            }
+
+            final PermissionStatusTable results = new PermissionStatusTable();
+            for (int permission : request.permissions) {
+                if (outcome.contains(permission)) {
+                    results.putIfAbsent(permission, outcome.get(permission));
+                }
+            }
+
+            request.successCallback.onSuccess(results);
+        }
+    }
+
+    private static boolean targetsMOrHigher(Context context) {
+        return ManifestIndex.get(context).getTargetSdkVersion() >= Build.VERSION_CODES.M;
     }
 
     @PermissionConstants.PermissionStatus
     private int determinePermissionStatus(
             @PermissionConstants.PermissionGroup int permission,
             Context context,
-            Activity activity) {
+            @Nullable Activity activity) {
+        return determinePermissionStatus(permission, context, activity, targetsMOrHigher(context));
+    }
+
+    @PermissionConstants.PermissionStatus
+    private int determinePermissionStatus(
+            @PermissionConstants.PermissionGroup int permission,
+            Context context,
+            @Nullable Activity activity,
+            boolean targetsMOrHigher) {
+        // The cache is invalidated when the activity resumes. Without an activity, for example in
+        // a headless engine, nothing would ever invalidate it, so such callers bypass it.
+        if (activity == null || !PermissionStatusTable.isValidGroup(permission)) {
+            return evaluatePermissionStatus(permission, context, activity, targetsMOrHigher);
+        }
+
+        final int generation = statusCache.generation();
+        final int cachedStatus = statusCache.get(permission);
+        if (cachedStatus != PermissionStatusCache.NO_STATUS) {
+            return cachedStatus;
+        }
+
+        final int permissionStatus = evaluatePermissionStatus(permission, context, activity, targetsMOrHigher);
+        statusCache.put(permission, generation, permissionStatus);
+        return permissionStatus;
+    }
+
+    @PermissionConstants.PermissionStatus
+    private static int withoutRefinementFlag(int permissionStatus) {
+        return permissionStatus & ~STATUS_UNREFINED;
+    }
+
+    @PermissionConstants.PermissionStatus
+    private int evaluatePermissionStatus(
+            @PermissionConstants.PermissionGroup int permission,
+            Context context,
+            @Nullable Activity activity,
+            boolean targetsMOrHigher) {
 
         if (permission == PermissionConstants.PERMISSION_GROUP_NOTIFICATION) {
             return checkNotificationPermissionStatus(context);
         }
 
+        if (permission == PermissionConstants.PERMISSION_GROUP_IGNORE_BATTERY_OPTIMIZATIONS) {
+            return checkIgnoreBatteryOptimizationsStatus(context);
+        }
+
         final List<String> names = PermissionUtils.getManifestNames(context, permission);
 
         if (names == null) {
@@ -164,16 +727,18 @@ final class PermissionManager {
             return PermissionConstants.PERMISSION_STATUS_NOT_DETERMINED;
         }
 
-        final boolean targetsMOrHigher = context.getApplicationInfo().targetSdkVersion >= Build.VERSION_CODES.M;
-
         for (String name : names) {
             // Only handle them if the client app actually targets a API level greater than M.
             if (targetsMOrHigher) {
+                final long startNanos = PluginDiagnostics.start();
                 final int permissionStatus = ContextCompat.checkSelfPermission(context, name);
+                PluginDiagnostics.recordBinderCall(PluginDiagnostics.BINDER_CHECK_SELF_PERMISSION, startNanos);
                 if (permissionStatus == PackageManager.PERMISSION_DENIED) {
                     if (!PermissionUtils.getRequestedPermissionBefore(context, name))
                     {
                         return PermissionConstants.PERMISSION_STATUS_NOT_DETERMINED;
+                    } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M && activity == null) {
+                        return PermissionConstants.PERMISSION_STATUS_DENIED | STATUS_UNREFINED;
                     } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M &&
                             PermissionUtils.isNeverAskAgainSelected(activity, name)) {
                         return PermissionConstants.PERMISSION_STATUS_NEWER_ASK_AGAIN;
@@ -203,26 +768,115 @@ final class PermissionManager {
             return;
         }
 
-        List<String> names = PermissionUtils.getManifestNames(activity, permission);
+        successCallback.onSuccess(determineShouldShowRequestPermissionRationale(permission, activity, null));
+    }
+
+    /**
+     * Determines for each of the supplied groups whether a rationale should be shown before
+     * requesting it. Each manifest name is asked about at most once per call.
+     */
+    void shouldShowRequestPermissionRationales(
+            int[] permissions,
+            Activity activity,
+            ShouldShowRequestPermissionRationaleBatchSuccessCallback successCallback,
+            ErrorCallback errorCallback) {
+        if (activity == null) {
+            Log.d(PermissionConstants.LOG_TAG, "Unable to detect current Activity.");
+
+            errorCallback.onError(
+                    "PermissionHandler.PermissionManager",
+                    "Unable to detect current Android Activity.");
+            return;
+        }
+
+        final Map<String, Boolean> rationaleByName = new HashMap<>();
+        final Map<Integer, Boolean> results = new HashMap<>(permissions.length * 4 / 3 + 1);
+        for (int permission : permissions) {
+            if (results.containsKey(permission)) {
+                continue;
+            }
+
+            results.put(
+                    permission,
+                    determineShouldShowRequestPermissionRationale(permission, activity, rationaleByName));
+        }
+
+        successCallback.onSuccess(results);
+    }
+
+    /**
+     * A rationale should be shown when it should be shown for any of the group's manifest names,
+     * the system only reports it for the names the user actually denied before.
+     */
+    private static boolean determineShouldShowRequestPermissionRationale(
+            @PermissionConstants.PermissionGroup int permission,
+            Activity activity,
+            @Nullable Map<String, Boolean> rationaleByName) {
+        final List<String> names = PermissionUtils.getManifestNames(activity, permission);
 
         // if isn't an android specific group then go ahead and return false;
         if (names == null) {
             Log.d(PermissionConstants.LOG_TAG, "No android specific permissions needed for: " + permission);
-            successCallback.onSuccess(false);
-            return;
+            return false;
         }
 
         if (names.isEmpty()) {
             Log.d(PermissionConstants.LOG_TAG, "No permissions found in manifest for: " + permission + " no need to show request rationale");
-            successCallback.onSuccess(false);
-            return;
+            return false;
         }
 
-        successCallback.onSuccess(ActivityCompat.shouldShowRequestPermissionRationale(activity, names.get(0)));
+        for (String name : names) {
+            Boolean shouldShowRequestPermissionRationale = rationaleByName != null
+                    ? rationaleByName.get(name)
+                    : null;
+
+            if (shouldShowRequestPermissionRationale == null) {
+                final long startNanos = PluginDiagnostics.start();
+                shouldShowRequestPermissionRationale = ActivityCompat.shouldShowRequestPermissionRationale(activity, name);
+                PluginDiagnostics.recordBinderCall(PluginDiagnostics.BINDER_SHOULD_SHOW_RATIONALE, startNanos);
+
+                if (rationaleByName != null) {
+                    rationaleByName.put(name, shouldShowRequestPermissionRationale);
+                }
+            }
+
+            if (shouldShowRequestPermissionRationale) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Loads the state needed to answer permission checks ahead of the first call: the manifest
+     * index, the request history and the notification manager. A check racing the warm-up waits
+     * for the manifest index and request history being loaded instead of loading them again.
+     */
+    void warmUp(Context context) {
+        ManifestIndex.get(context);
+        RequestHistoryStore.get(context);
+        getNotificationManager(context);
+        getPowerManager(context);
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            getPlatformNotificationManager(context);
+        }
+    }
+
+    private NotificationManagerCompat getNotificationManager(Context context) {
+        NotificationManagerCompat manager = notificationManager;
+        if (manager == null) {
+            manager = NotificationManagerCompat.from(context.getApplicationContext() != null
+                    ? context.getApplicationContext()
+                    : context);
+            notificationManager = manager;
+        }
+        return manager;
     }
 
     private int checkNotificationPermissionStatus(Context context) {
-        NotificationManagerCompat manager = NotificationManagerCompat.from(context);
+        NotificationManagerCompat manager = getNotificationManager(context);
         boolean isGranted = manager.areNotificationsEnabled();
         if (isGranted) {
             return PermissionConstants.PERMISSION_STATUS_GRANTED;
@@ -230,61 +884,268 @@ final class PermissionManager {
         return PermissionConstants.PERMISSION_STATUS_DENIED;
     }
 
-    @VisibleForTesting
-    static final class RequestPermissionsListener
-        implements PluginRegistry.RequestPermissionsResultListener {
+    @RequiresApi(api = Build.VERSION_CODES.O)
+    private int getChannelImportance(String channelId, Context context, boolean useCache, int generation) {
+        ChannelImportances cached = null;
+        if (useCache) {
+            cached = channelImportances;
+            if (cached == null || cached.generation != generation) {
+                cached = new ChannelImportances(generation);
+                channelImportances = cached;
+            }
+
+            final Integer cachedImportance = cached.importances.get(channelId);
+            if (cachedImportance != null) {
+                return cachedImportance;
+            }
+        }
+
+        final NotificationManager manager = getPlatformNotificationManager(context);
+        final NotificationChannel channel = manager != null
+                ? manager.getNotificationChannel(channelId)
+                : null;
+        final int importance = channel != null
+                ? channel.getImportance()
+                : NotificationManager.IMPORTANCE_UNSPECIFIED;
+
+        if (cached != null) {
+            cached.importances.put(channelId, importance);
+        }
+        return importance;
+    }
 
-        // There's no way to unregister permission listeners in the v1 embedding, so we'll be called
-        // duplicate times in cases where the user denies and then grants a permission. Keep track of if
-        // we've responded before and bail out of handling the callback manually if this is a repeat
-        // call.
-        boolean alreadyCalled = false;
+    @Nullable
+    private NotificationManager getPlatformNotificationManager(Context context) {
+        NotificationManager manager = platformNotificationManager;
+        if (manager == null) {
+            manager = (NotificationManager) (context.getApplicationContext() != null
+                    ? context.getApplicationContext()
+                    : context).getSystemService(Context.NOTIFICATION_SERVICE);
+            platformNotificationManager = manager;
+        }
+        return manager;
+    }
+
+    @Nullable
+    private PowerManager getPowerManager(Context context) {
+        PowerManager manager = powerManager;
+        if (manager == null) {
+            manager = (PowerManager) (context.getApplicationContext() != null
+                    ? context.getApplicationContext()
+                    : context).getSystemService(Context.POWER_SERVICE);
+            powerManager = manager;
+        }
+        return manager;
+    }
 
+    private int checkIgnoreBatteryOptimizationsStatus(Context context) {
+        // PowerManager.isIgnoringBatteryOptimizations has been included in Android M first.
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.M) {
+            return PermissionConstants.PERMISSION_STATUS_RESTRICTED;
+        }
+
+        final PowerManager manager = getPowerManager(context);
+        if (manager != null && manager.isIgnoringBatteryOptimizations(context.getPackageName())) {
+            return PermissionConstants.PERMISSION_STATUS_GRANTED;
+        }
+        return PermissionConstants.PERMISSION_STATUS_DENIED;
+    }
+
+    /**
+     * A permission request, from the moment it is queued until it is answered. A request moves
+     * from pending to dialog shown, and ends either completed with the dialog result or abandoned
+     * when that result can no longer arrive. Requests that need no dialog complete from pending.
+     */
+    private static final class PendingRequest {
+        static final int STATE_PENDING = 0;
+        static final int STATE_DIALOG_SHOWN = 1;
+        static final int STATE_COMPLETED = 2;
+        static final int STATE_ABANDONED = 3;
+
+        final int[] permissions;
         final Activity activity;
-        final RequestPermissionsSuccessCallback callback;
-        final Map<Integer, Integer> requestResults;
+        final RequestPermissionsSuccessCallback successCallback;
 
-        @VisibleForTesting
-        RequestPermissionsListener(
+        private int state = STATE_PENDING;
+
+        // The dialog that was on screen when this request was queued, the groups it answered are
+        // not asked for again.
+        @Nullable
+        OngoingDialog answeredBy;
+
+        PendingRequest(
+                int[] permissions,
                 Activity activity,
-                Map<Integer, Integer> requestResults,
-                RequestPermissionsSuccessCallback callback) {
+                RequestPermissionsSuccessCallback successCallback) {
+            this.permissions = permissions;
             this.activity = activity;
-            this.callback = callback;
+            this.successCallback = successCallback;
+        }
+
+        boolean canShareDialogWith(PendingRequest other) {
+            return activity == other.activity;
+        }
+
+        /**
+         * Moves the request to the supplied state, returns {@code false} when the transition
+         * isn't allowed from the current state.
+         */
+        boolean moveTo(int nextState) {
+            final boolean allowed;
+            switch (state) {
+                case STATE_PENDING:
+                    allowed = nextState != STATE_PENDING;
+                    break;
+                case STATE_DIALOG_SHOWN:
+                    allowed = nextState == STATE_COMPLETED || nextState == STATE_ABANDONED;
+                    break;
+                default:
+                    allowed = false;
+                    break;
+            }
+
+            if (allowed) {
+                state = nextState;
+            }
+            return allowed;
+        }
+    }
+
+    /**
+     * Notification channel importances read while the status cache had the supplied generation.
+     */
+    private static final class ChannelImportances {
+        final int generation;
+        final ConcurrentMap<String, Integer> importances = new ConcurrentHashMap<>();
+
+        ChannelImportances(int generation) {
+            this.generation = generation;
+        }
+    }
+
+    private static final class OngoingDialog {
+        final int requestCode;
+        final Activity activity;
+        final List<PendingRequest> requests;
+        final PermissionStatusTable requestResults;
+        final long deadlineUptimeMillis;
+
+        Runnable deadlineTask;
+        List<String> requestedNames;
+        boolean awaitingPermissionsResult;
+        boolean awaitingIgnoreBatteryOptimizationsResult;
+
+        OngoingDialog(
+                int requestCode,
+                Activity activity,
+                List<PendingRequest> requests,
+                PermissionStatusTable requestResults,
+                long deadlineUptimeMillis) {
+            this.requestCode = requestCode;
+            this.activity = activity;
+            this.requests = requests;
             this.requestResults = requestResults;
+            this.deadlineUptimeMillis = deadlineUptimeMillis;
+        }
+
+        /**
+         * Returns whether every one of the supplied groups is asked for by this dialog.
+         */
+        boolean covers(int[] permissions) {
+            for (int permission : permissions) {
+                boolean covered = false;
+                for (PendingRequest request : requests) {
+                    for (int requested : request.permissions) {
+                        if (requested == permission) {
+                            covered = true;
+                            break;
+                        }
+                    }
+
+                    if (covered) {
+                        break;
+                    }
+                }
+
+                if (!covered) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Receives the activity results for a single activity binding and hands them to the
+     * {@link PermissionManager}. Registered and released together with the
+     * {@link RequestPermissionsListener} of the same binding.
+     */
+    @VisibleForTesting
+    static final class ActivityResultListener
+        implements PluginRegistry.ActivityResultListener {
+
+        final PermissionManager permissionManager;
+
+        @Nullable
+        private Activity activity;
+
+        @VisibleForTesting
+        ActivityResultListener(Activity activity, PermissionManager permissionManager) {
+            this.activity = activity;
+            this.permissionManager = permissionManager;
+        }
+
+        void release() {
+            activity = null;
         }
 
         @Override
-        public boolean onRequestPermissionsResult(int id, String[] permissions, int[] grantResults)
-        {
-            if (alreadyCalled || id != PermissionConstants.PERMISSION_CODE) {
+        public boolean onActivityResult(int requestCode, int resultCode, Intent data) {
+            final Activity activity = this.activity;
+            if (activity == null) {
                 return false;
             }
 
-            alreadyCalled = true;
+            return permissionManager.onActivityResult(activity, requestCode);
+        }
+    }
 
-            for (int i = 0; i < permissions.length; i++) {
-                final String permissionName = permissions[i];
+    /**
+     * Receives the permission request results for a single activity binding and hands them to the
+     * {@link PermissionManager}, which matches them to the ongoing request by request code.
+     *
+     * <p>One listener is registered per activity binding for as long as the binding lasts. Call
+     * {@link #release()} when the activity detaches; the v1 embedding offers no way to unregister a
+     * listener, so a released listener drops its activity and ignores any further results.
+     */
+    @VisibleForTesting
+    static final class RequestPermissionsListener
+        implements PluginRegistry.RequestPermissionsResultListener {
 
-                @PermissionConstants.PermissionGroup final int permission =
-                        PermissionUtils.parseManifestName(permissionName);
+        final PermissionManager permissionManager;
 
-                if (permission == PermissionConstants.PERMISSION_GROUP_UNKNOWN)
-                    continue;
+        @Nullable
+        private Activity activity;
 
-                final int result = grantResults[i];
+        @VisibleForTesting
+        RequestPermissionsListener(Activity activity, PermissionManager permissionManager) {
+            this.activity = activity;
+            this.permissionManager = permissionManager;
+        }
 
-                if (!requestResults.containsKey(permission)) {
-                    requestResults.put(
-                            permission,
-                            PermissionUtils.toPermissionStatus(this.activity, permissionName, result));
-                }
+        void release() {
+            activity = null;
+        }
 
-                PermissionUtils.updatePermissionShouldShowStatus(this.activity, permission);
+        @Override
+        public boolean onRequestPermissionsResult(int id, String[] permissions, int[] grantResults)
+        {
+            final Activity activity = this.activity;
+            if (activity == null) {
+                return false;
             }
 
-            this.callback.onSuccess(requestResults);
-            return true;
+            return permissionManager.onRequestPermissionsResult(activity, id, permissions, grantResults);
         }
     }
 }
@@ -0,0 +1,92 @@
+package com.baseflow.permissionhandler;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Versioned record of the last reported permission and service status of every permission group.
+ *
+ * <p>Each update that changes at least one status advances the version, and every entry remembers
+ * the version in which it last changed. Callers that hold a snapshot can therefore ask for the
+ * entries that changed since their version only.
+ *
+ * <p>Versions continue from the wall clock time at which the store was created, so a version
+ * handed out by an earlier process is older than any version of this store and is answered with a
+ * full snapshot.
+ */
+final class PermissionSnapshotStore {
+    private static final int NO_STATUS = -1;
+
+    private final long baseVersion = System.currentTimeMillis();
+    private long version = baseVersion;
+
+    private final int[] permissionStatuses = newStatusArray();
+    private final long[] permissionVersions = new long[PermissionConstants.PERMISSION_GROUP_COUNT];
+    private final int[] serviceStatuses = newStatusArray();
+    private final long[] serviceVersions = new long[PermissionConstants.PERMISSION_GROUP_COUNT];
+
+    /**
+     * Records the supplied statuses and returns the snapshot for a caller holding
+     * {@code sinceVersion}. Groups missing from either table keep their previous entry.
+     *
+     * <p>The returned map contains the current {@code version}, whether the reply is a
+     * {@code full} snapshot and the {@code permissions} and {@code services} entries, each mapping
+     * a permission group to its status.
+     */
+    synchronized Map<String, Object> update(
+            PermissionStatusTable permissions,
+            PermissionStatusTable services,
+            long sinceVersion) {
+        final long nextVersion = version + 1;
+        final boolean permissionsChanged = record(permissions, permissionStatuses, permissionVersions, nextVersion);
+        final boolean servicesChanged = record(services, serviceStatuses, serviceVersions, nextVersion);
+        if (permissionsChanged || servicesChanged) {
+            version = nextVersion;
+        }
+
+        final boolean full = sinceVersion < baseVersion || sinceVersion > version;
+        final long changedAfter = full ? Long.MIN_VALUE : sinceVersion;
+
+        final Map<String, Object> snapshot = new HashMap<>(8);
+        snapshot.put("version", version);
+        snapshot.put("full", full);
+        snapshot.put("permissions", collect(permissionStatuses, permissionVersions, changedAfter));
+        snapshot.put("services", collect(serviceStatuses, serviceVersions, changedAfter));
+        return snapshot;
+    }
+
+    private static boolean record(
+            PermissionStatusTable current,
+            int[] statuses,
+            long[] versions,
+            long nextVersion) {
+        boolean changed = false;
+        for (int permission = 0; permission < statuses.length; permission++) {
+            if (!current.contains(permission) || current.get(permission) == statuses[permission]) {
+                continue;
+            }
+
+            statuses[permission] = current.get(permission);
+            versions[permission] = nextVersion;
+            changed = true;
+        }
+        return changed;
+    }
+
+    private static Map<Integer, Integer> collect(int[] statuses, long[] versions, long changedAfter) {
+        final Map<Integer, Integer> entries = new HashMap<>();
+        for (int permission = 0; permission < statuses.length; permission++) {
+            if (statuses[permission] != NO_STATUS && versions[permission] > changedAfter) {
+                entries.put(permission, statuses[permission]);
+            }
+        }
+        return entries;
+    }
+
+    private static int[] newStatusArray() {
+        final int[] statuses = new int[PermissionConstants.PERMISSION_GROUP_COUNT];
+        Arrays.fill(statuses, NO_STATUS);
+        return statuses;
+    }
+}
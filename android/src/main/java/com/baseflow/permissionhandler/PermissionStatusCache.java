@@ -0,0 +1,56 @@
+package com.baseflow.permissionhandler;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Caches the last determined status per permission group.
+ *
+ * <p>Permission statuses can only change while the user is outside of the application (in the
+ * system permission dialog or the settings screen). The cache is therefore invalidated when the
+ * activity resumes, when a permission request completes and after the app settings have been
+ * opened.
+ *
+ * <p>Every entry is stamped with the generation it was computed in. Invalidating the cache moves
+ * to a new generation, so a status that was being computed while the cache was invalidated is
+ * never served afterwards.
+ */
+final class PermissionStatusCache {
+    static final int NO_STATUS = -1;
+
+    private final AtomicInteger generation = new AtomicInteger(1);
+    private final AtomicLongArray entries = new AtomicLongArray(PermissionConstants.PERMISSION_GROUP_COUNT);
+
+    /**
+     * Returns the current generation. Capture it before determining a status and hand it to
+     * {@link #put(int, int, int)} afterwards.
+     */
+    int generation() {
+        return generation.get();
+    }
+
+    @PermissionConstants.PermissionStatus
+    int get(@PermissionConstants.PermissionGroup int permission) {
+        final long entry = entries.get(permission);
+        if ((int) (entry >>> 32) != generation.get()) {
+            return NO_STATUS;
+        }
+
+        return (int) entry;
+    }
+
+    void put(
+            @PermissionConstants.PermissionGroup int permission,
+            int generation,
+            @PermissionConstants.PermissionStatus int permissionStatus) {
+        if (generation != this.generation.get()) {
+            return;
+        }
+
+        entries.set(permission, ((long) generation << 32) | (permissionStatus & 0xFFFFFFFFL));
+    }
+
+    void invalidate() {
+        generation.incrementAndGet();
+    }
+}
@@ -0,0 +1,94 @@
+package com.baseflow.permissionhandler;
+
+import android.app.Activity;
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+import io.flutter.plugin.common.EventChannel;
+
+/**
+ * Streams permission status changes to Dart.
+ *
+ * <p>The listener supplies the permission groups it is interested in when subscribing. Their
+ * statuses are sent once when the subscription starts. Afterwards the subscribed groups are
+ * evaluated again each time the permission status cache is invalidated (the activity resumed, a
+ * permission request completed or the app settings were opened) and only the groups whose status
+ * changed are sent, as a map of permission group to permission status.
+ */
+final class PermissionStatusStreamHandler implements EventChannel.StreamHandler {
+    private final Context applicationContext;
+    private final PermissionManager permissionManager;
+    private final Executor backgroundExecutor;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final PermissionManager.StatusCacheListener statusCacheListener = this::onPermissionStatusesInvalidated;
+
+    @Nullable
+    private volatile Activity activity;
+
+    @Nullable
+    private volatile StatusSubscription subscription;
+
+    PermissionStatusStreamHandler(
+            Context applicationContext,
+            PermissionManager permissionManager,
+            Executor backgroundExecutor) {
+        this.applicationContext = applicationContext;
+        this.permissionManager = permissionManager;
+        this.backgroundExecutor = backgroundExecutor;
+    }
+
+    void setActivity(@Nullable Activity activity) {
+        this.activity = activity;
+    }
+
+    @Override
+    public void onListen(Object arguments, EventChannel.EventSink events) {
+        @SuppressWarnings("unchecked")
+        final List<Integer> permissions = (List<Integer>) arguments;
+
+        subscription = new StatusSubscription(PermissionStatusTable.toGroupArray(permissions), events);
+        permissionManager.addStatusCacheListener(statusCacheListener);
+        onPermissionStatusesInvalidated();
+    }
+
+    @Override
+    public void onCancel(Object arguments) {
+        permissionManager.removeStatusCacheListener(statusCacheListener);
+        subscription = null;
+    }
+
+    private void onPermissionStatusesInvalidated() {
+        final StatusSubscription subscription = this.subscription;
+        if (subscription == null) {
+            return;
+        }
+
+        final Activity activity = this.activity;
+        backgroundExecutor.execute(() -> {
+            try {
+                permissionManager.checkPermissionStatuses(
+                        subscription.permissions,
+                        applicationContext,
+                        activity,
+                        (PermissionStatusTable permissionStatuses) -> {
+                            final Map<Integer, Integer> changes = subscription.updateStatuses(permissionStatuses);
+                            if (!changes.isEmpty()) {
+                                mainHandler.post(() -> subscription.send(this.subscription, changes));
+                            }
+                        },
+                        (String errorCode, String errorDescription) ->
+                                Log.d(PermissionConstants.LOG_TAG, "Unable to evaluate subscribed permissions: " + errorDescription));
+            } catch (RuntimeException e) {
+                Log.d(PermissionConstants.LOG_TAG, "Unable to evaluate subscribed permissions: ", e);
+            }
+        });
+    }
+}
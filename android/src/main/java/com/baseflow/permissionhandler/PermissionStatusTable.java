@@ -0,0 +1,121 @@
+package com.baseflow.permissionhandler;
+
+import android.util.Log;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Dense table holding a permission status per permission group.
+ *
+ * <p>Permission groups are small consecutive integers, so statuses are stored in a plain array
+ * indexed by group. The table is converted to the representation expected by the method channel
+ * only once, using {@link #toMap()}.
+ */
+final class PermissionStatusTable {
+    private static final int NO_STATUS = -1;
+
+    private final int[] statuses = new int[PermissionConstants.PERMISSION_GROUP_COUNT];
+    private int size;
+
+    PermissionStatusTable() {
+        Arrays.fill(statuses, NO_STATUS);
+    }
+
+    static boolean isValidGroup(int permission) {
+        return permission >= 0 && permission < PermissionConstants.PERMISSION_GROUP_COUNT;
+    }
+
+    /**
+     * Converts the permission groups received over the method channel into a primitive array,
+     * dropping groups this version of the plugin does not know about.
+     */
+    static int[] toGroupArray(List<Integer> permissions) {
+        final int[] groups = new int[permissions.size()];
+        for (int i = 0; i < groups.length; i++) {
+            groups[i] = permissions.get(i);
+        }
+
+        return retainValidGroups(groups);
+    }
+
+    /**
+     * Returns the permission groups this version of the plugin knows about, the supplied array is
+     * returned as is when all groups are known.
+     */
+    static int[] retainValidGroups(int[] permissions) {
+        int count = 0;
+        for (int permission : permissions) {
+            if (isValidGroup(permission)) {
+                count++;
+            } else {
+                Log.d(PermissionConstants.LOG_TAG, "Ignoring unknown permission group: " + permission);
+            }
+        }
+
+        if (count == permissions.length) {
+            return permissions;
+        }
+
+        final int[] groups = new int[count];
+        int index = 0;
+        for (int permission : permissions) {
+            if (isValidGroup(permission)) {
+                groups[index++] = permission;
+            }
+        }
+        return groups;
+    }
+
+    boolean contains(@PermissionConstants.PermissionGroup int permission) {
+        return statuses[permission] != NO_STATUS;
+    }
+
+    @PermissionConstants.PermissionStatus
+    int get(@PermissionConstants.PermissionGroup int permission) {
+        return statuses[permission];
+    }
+
+    /**
+     * Stores the status for the supplied group, unless a status has already been recorded for it.
+     */
+    void putIfAbsent(
+            @PermissionConstants.PermissionGroup int permission,
+            @PermissionConstants.PermissionStatus int permissionStatus) {
+        if (statuses[permission] != NO_STATUS) {
+            return;
+        }
+
+        statuses[permission] = permissionStatus;
+        size++;
+    }
+
+    /**
+     * Stores the status for the supplied group, replacing any status recorded before.
+     */
+    void put(
+            @PermissionConstants.PermissionGroup int permission,
+            @PermissionConstants.PermissionStatus int permissionStatus) {
+        if (statuses[permission] == NO_STATUS) {
+            size++;
+        }
+
+        statuses[permission] = permissionStatus;
+    }
+
+    int size() {
+        return size;
+    }
+
+    Map<Integer, Integer> toMap() {
+        final Map<Integer, Integer> map = new HashMap<>(size * 4 / 3 + 1);
+        for (int permission = 0; permission < statuses.length; permission++) {
+            if (statuses[permission] != NO_STATUS) {
+                map.put(permission, statuses[permission]);
+            }
+        }
+        return map;
+    }
+}
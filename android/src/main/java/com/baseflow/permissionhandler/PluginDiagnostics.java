@@ -0,0 +1,188 @@
+package com.baseflow.permissionhandler;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import io.flutter.plugin.common.MethodChannel;
+
+/**
+ * Process wide call counters and latency histograms for the plugin.
+ *
+ * <p>Records, per method call, how often it was made, how often it failed and how long it took
+ * until the reply was sent. The binder calls the plugin makes into the system are counted and
+ * timed separately. Recording is lock free. Diagnostics are disabled by default, in which case
+ * the only cost is a read of a volatile flag at each instrumented call site.
+ */
+final class PluginDiagnostics {
+    static final int BINDER_GET_PACKAGE_INFO = 0;
+    static final int BINDER_CHECK_SELF_PERMISSION = 1;
+    static final int BINDER_SHOULD_SHOW_RATIONALE = 2;
+    static final int BINDER_LOCATION_SERVICE = 3;
+    static final int BINDER_TELEPHONY_SERVICE = 4;
+
+    private static final String[] BINDER_CALL_NAMES = {
+            "getPackageInfo",
+            "checkSelfPermission",
+            "shouldShowRequestPermissionRationale",
+            "locationService",
+            "telephonyService",
+    };
+
+    private static volatile boolean enabled;
+
+    private static final ConcurrentMap<String, CallStatistics> methodCalls = new ConcurrentHashMap<>();
+    private static final CallStatistics[] binderCalls = newBinderCallStatistics();
+
+    private PluginDiagnostics() {
+    }
+
+    static boolean isEnabled() {
+        return enabled;
+    }
+
+    static void setEnabled(boolean enabled) {
+        PluginDiagnostics.enabled = enabled;
+    }
+
+    /**
+     * Returns the start time to hand to one of the record methods, or {@code 0} when diagnostics
+     * are disabled.
+     */
+    static long start() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    static void recordBinderCall(int binderCall, long startNanos) {
+        if (startNanos == 0) {
+            return;
+        }
+
+        binderCalls[binderCall].record(System.nanoTime() - startNanos, false);
+    }
+
+    /**
+     * Wraps the result of a method call so its latency and outcome are recorded when the reply is
+     * sent. Returns the result as is when diagnostics are disabled.
+     */
+    static MethodChannel.Result instrument(String method, MethodChannel.Result result) {
+        if (!enabled) {
+            return result;
+        }
+
+        CallStatistics statistics = methodCalls.get(method);
+        if (statistics == null) {
+            final CallStatistics created = new CallStatistics();
+            statistics = methodCalls.putIfAbsent(method, created);
+            if (statistics == null) {
+                statistics = created;
+            }
+        }
+
+        return new InstrumentedResult(result, statistics, System.nanoTime());
+    }
+
+    static Map<String, Object> snapshot() {
+        final Map<String, Object> methods = new HashMap<>();
+        for (Map.Entry<String, CallStatistics> entry : methodCalls.entrySet()) {
+            methods.put(entry.getKey(), entry.getValue().snapshot());
+        }
+
+        final Map<String, Object> binder = new HashMap<>();
+        for (int i = 0; i < binderCalls.length; i++) {
+            binder.put(BINDER_CALL_NAMES[i], binderCalls[i].snapshot());
+        }
+
+        final Map<String, Object> snapshot = new HashMap<>();
+        snapshot.put("enabled", enabled);
+        snapshot.put("methodCalls", methods);
+        snapshot.put("binderCalls", binder);
+        return snapshot;
+    }
+
+    private static CallStatistics[] newBinderCallStatistics() {
+        final CallStatistics[] statistics = new CallStatistics[BINDER_CALL_NAMES.length];
+        for (int i = 0; i < statistics.length; i++) {
+            statistics[i] = new CallStatistics();
+        }
+        return statistics;
+    }
+
+    /**
+     * Call count, error count and a latency histogram with power of two buckets: bucket {@code i}
+     * counts the calls that took between 2^i and 2^(i+1) nanoseconds.
+     */
+    private static final class CallStatistics {
+        private static final int BUCKET_COUNT = 64;
+
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong errors = new AtomicLong();
+        private final AtomicLong totalNanos = new AtomicLong();
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+
+        void record(long elapsedNanos, boolean error) {
+            final long nanos = Math.max(elapsedNanos, 1);
+            count.incrementAndGet();
+            totalNanos.addAndGet(nanos);
+            buckets.incrementAndGet(63 - Long.numberOfLeadingZeros(nanos));
+            if (error) {
+                errors.incrementAndGet();
+            }
+        }
+
+        Map<String, Object> snapshot() {
+            final List<Long> histogram = new ArrayList<>();
+            int lastBucket = -1;
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                if (buckets.get(i) != 0) {
+                    lastBucket = i;
+                }
+            }
+            for (int i = 0; i <= lastBucket; i++) {
+                histogram.add(buckets.get(i));
+            }
+
+            final Map<String, Object> snapshot = new HashMap<>();
+            snapshot.put("count", count.get());
+            snapshot.put("errors", errors.get());
+            snapshot.put("totalNanos", totalNanos.get());
+            snapshot.put("histogram", histogram);
+            return snapshot;
+        }
+    }
+
+    private static final class InstrumentedResult implements MethodChannel.Result {
+        private final MethodChannel.Result result;
+        private final CallStatistics statistics;
+        private final long startNanos;
+
+        InstrumentedResult(MethodChannel.Result result, CallStatistics statistics, long startNanos) {
+            this.result = result;
+            this.statistics = statistics;
+            this.startNanos = startNanos;
+        }
+
+        @Override
+        public void success(Object value) {
+            statistics.record(System.nanoTime() - startNanos, false);
+            result.success(value);
+        }
+
+        @Override
+        public void error(String errorCode, String errorMessage, Object errorDetails) {
+            statistics.record(System.nanoTime() - startNanos, true);
+            result.error(errorCode, errorMessage, errorDetails);
+        }
+
+        @Override
+        public void notImplemented() {
+            statistics.record(System.nanoTime() - startNanos, true);
+            result.notImplemented();
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package com.baseflow.permissionhandler;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import androidx.annotation.VisibleForTesting;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Remembers which manifest permissions have been requested from the user before.
+ *
+ * <p>The history is read from the {@code GENERIC_PREFERENCES} shared preferences once and kept in
+ * memory afterwards. Updates are applied to the in-memory copy immediately and persisted with a
+ * single asynchronous {@link SharedPreferences.Editor#apply()} per batch. The preferences keep
+ * their original layout (one boolean entry per manifest name), so history written by earlier
+ * versions of the plugin is picked up as is.
+ */
+final class RequestHistoryStore {
+    private static final String PREFERENCES_NAME = "GENERIC_PREFERENCES";
+
+    private static volatile RequestHistoryStore instance;
+
+    private final SharedPreferences preferences;
+    private volatile Set<String> requestedPermissions;
+
+    private RequestHistoryStore(SharedPreferences preferences, Set<String> requestedPermissions) {
+        this.preferences = preferences;
+        this.requestedPermissions = requestedPermissions;
+    }
+
+    /**
+     * Returns the shared store, loading the persisted history on first use.
+     */
+    static RequestHistoryStore get(Context context) {
+        RequestHistoryStore store = instance;
+        if (store != null) {
+            return store;
+        }
+
+        synchronized (RequestHistoryStore.class) {
+            if (instance == null) {
+                instance = load(context);
+            }
+            return instance;
+        }
+    }
+
+    /**
+     * Drops the shared store, the next lookup loads the history again from the supplied context.
+     */
+    @VisibleForTesting
+    static void reset() {
+        instance = null;
+    }
+
+    boolean hasRequestedBefore(String permission) {
+        return requestedPermissions.contains(permission);
+    }
+
+    /**
+     * Marks the supplied manifest permissions as requested. Permissions that were already known
+     * are skipped, nothing is written when the batch contains no new entries.
+     */
+    synchronized void markRequested(Collection<String> permissions) {
+        final Set<String> current = requestedPermissions;
+        Set<String> updated = null;
+        SharedPreferences.Editor editor = null;
+
+        for (String permission : permissions) {
+            if (current.contains(permission) || (updated != null && updated.contains(permission))) {
+                continue;
+            }
+
+            if (updated == null) {
+                updated = new HashSet<>(current);
+                editor = preferences.edit();
+            }
+
+            updated.add(permission);
+            editor.putBoolean(permission, true);
+        }
+
+        if (updated == null) {
+            return;
+        }
+
+        requestedPermissions = Collections.unmodifiableSet(updated);
+        editor.apply();
+    }
+
+    private static RequestHistoryStore load(Context context) {
+        final SharedPreferences preferences = context.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+        final Set<String> requestedPermissions = new HashSet<>();
+
+        for (Map.Entry<String, ?> entry : preferences.getAll().entrySet()) {
+            if (Boolean.TRUE.equals(entry.getValue())) {
+                requestedPermissions.add(entry.getKey());
+            }
+        }
+
+        return new RequestHistoryStore(preferences, Collections.unmodifiableSet(requestedPermissions));
+    }
+}
@@ -1,7 +1,9 @@
 package com.baseflow.permissionhandler;
 
+import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
+import android.content.IntentFilter;
 import android.content.pm.PackageManager;
 import android.content.pm.ResolveInfo;
 import android.location.LocationManager;
@@ -14,7 +16,18 @@ import android.telephony.TelephonyManager;
 import android.text.TextUtils;
 import android.util.Log;
 
+import androidx.annotation.Nullable;
+
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 final class ServiceManager {
     @FunctionalInterface
@@ -22,6 +35,46 @@ final class ServiceManager {
         void onSuccess(@PermissionConstants.ServiceStatus int serviceStatus);
     }
 
+    @FunctionalInterface
+    interface BatchSuccessCallback {
+        void onSuccess(PermissionStatusTable serviceStatuses);
+    }
+
+    @FunctionalInterface
+    interface ServiceStatusListener {
+        void onServiceStatusChanged();
+    }
+
+    private static final int SERVICE_STATUS_UNKNOWN = -1;
+
+    // Services that can be probed, several permission groups may share the same service.
+    private static final int SERVICE_NONE = -1;
+    private static final int SERVICE_LOCATION = 0;
+    private static final int SERVICE_PHONE = 1;
+    private static final int SERVICE_COUNT = 2;
+
+    private static final long SERVICE_PROBE_TIMEOUT_MILLIS = 1000;
+
+    private final List<ServiceStatusListener> serviceStatusListeners = new CopyOnWriteArrayList<>();
+
+    // Kept up to date by the location providers receiver once it has been registered.
+    private volatile int locationServiceStatus = SERVICE_STATUS_UNKNOWN;
+
+    @Nullable
+    private Context receiverContext;
+
+    @Nullable
+    private BroadcastReceiver locationProvidersReceiver;
+
+    @Nullable
+    private ExecutorService probeExecutor;
+
+    // The latest probe per service. Binder calls ignore interrupts, so a probe that timed out
+    // keeps its thread until the system answers. Checks made in the meantime wait for that same
+    // probe instead of starting another, which keeps one thread free for every other service.
+    @SuppressWarnings("unchecked")
+    private final Future<Integer>[] probes = new Future[SERVICE_COUNT];
+
     void checkServiceStatus(
             int permission,
             Context context,
@@ -33,10 +86,271 @@ final class ServiceManager {
             return;
         }
 
-        successCallback.onSuccess(PermissionConstants.SERVICE_STATUS_NOT_APPLICABLE);
+        successCallback.onSuccess(determineServiceStatus(getService(permission), context));
+    }
+
+    /**
+     * Determines the service status for several permission groups in one go.
+     *
+     * <p>Each distinct service is probed on its own thread, with at most one probe in flight per
+     * service. A probe that does not answer within {@link #SERVICE_PROBE_TIMEOUT_MILLIS} is left
+     * running and the groups depending on it are left out of the result, so a single slow system
+     * service cannot hold up the others. This blocks the calling thread for at most the probe
+     * timeout and should not be called on the platform thread.
+     */
+    void checkServiceStatuses(
+            int[] permissions,
+            Context context,
+            BatchSuccessCallback successCallback,
+            ErrorCallback errorCallback) {
+        if(context == null) {
+            Log.d(PermissionConstants.LOG_TAG, "Context cannot be null.");
+            errorCallback.onError("PermissionHandler.ServiceManager", "Android context cannot be null.");
+            return;
+        }
+
+        final PermissionStatusTable serviceStatuses = new PermissionStatusTable();
+        final boolean[] servicesToProbe = new boolean[SERVICE_COUNT];
+        for (int permission : permissions) {
+            final int service = getService(permission);
+            if (service == SERVICE_NONE) {
+                serviceStatuses.put(permission, PermissionConstants.SERVICE_STATUS_NOT_APPLICABLE);
+            } else {
+                servicesToProbe[service] = true;
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        final Future<Integer>[] probes = new Future[SERVICE_COUNT];
+        for (int service = 0; service < SERVICE_COUNT; service++) {
+            if (servicesToProbe[service]) {
+                probes[service] = getProbe(service, context);
+            }
+        }
+
+        final long deadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(SERVICE_PROBE_TIMEOUT_MILLIS);
+        for (int service = 0; service < SERVICE_COUNT; service++) {
+            if (probes[service] == null) {
+                continue;
+            }
+
+            final int serviceStatus;
+            try {
+                serviceStatus = probes[service].get(
+                        Math.max(0, deadlineNanos - System.nanoTime()),
+                        TimeUnit.NANOSECONDS);
+            } catch (TimeoutException | CancellationException ex) {
+                Log.d(PermissionConstants.LOG_TAG, "Timed out checking the status of service: " + service);
+                continue;
+            } catch (ExecutionException ex) {
+                Log.d(PermissionConstants.LOG_TAG, "Unable to check the status of service: " + service, ex);
+                continue;
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                errorCallback.onError("PermissionHandler.ServiceManager", "Interrupted while checking the service statuses.");
+                return;
+            }
+
+            for (int permission : permissions) {
+                if (getService(permission) == service) {
+                    serviceStatuses.put(permission, serviceStatus);
+                }
+            }
+        }
+
+        successCallback.onSuccess(serviceStatuses);
+    }
+
+    void addServiceStatusListener(ServiceStatusListener listener) {
+        serviceStatusListeners.add(listener);
+    }
+
+    void removeServiceStatusListener(ServiceStatusListener listener) {
+        serviceStatusListeners.remove(listener);
+    }
+
+    /**
+     * Stops tracking the location service, the next status check will query the system again.
+     */
+    synchronized void dispose() {
+        if (probeExecutor != null) {
+            probeExecutor.shutdownNow();
+            probeExecutor = null;
+        }
+
+        Arrays.fill(probes, null);
+
+        if (receiverContext != null && locationProvidersReceiver != null) {
+            receiverContext.unregisterReceiver(locationProvidersReceiver);
+        }
+
+        receiverContext = null;
+        locationProvidersReceiver = null;
+        locationServiceStatus = SERVICE_STATUS_UNKNOWN;
+    }
+
+    private synchronized Future<Integer> getProbe(int service, Context context) {
+        final Future<Integer> pendingProbe = probes[service];
+        if (pendingProbe != null && !pendingProbe.isDone()) {
+            return pendingProbe;
+        }
+
+        final Future<Integer> probe = getProbeExecutor().submit(() -> determineServiceStatus(service, context));
+        probes[service] = probe;
+        return probe;
+    }
+
+    private synchronized ExecutorService getProbeExecutor() {
+        if (probeExecutor == null) {
+            probeExecutor = Executors.newFixedThreadPool(
+                    SERVICE_COUNT,
+                    (Runnable runnable) -> new Thread(runnable, "permission_handler_service_probe"));
+        }
+        return probeExecutor;
+    }
+
+    /**
+     * Returns whether the supplied group depends on a system service whose status can be checked.
+     */
+    static boolean hasService(int permission) {
+        return getService(permission) != SERVICE_NONE;
+    }
+
+    private static int getService(int permission) {
+        switch (permission) {
+            case PermissionConstants.PERMISSION_GROUP_LOCATION:
+            case PermissionConstants.PERMISSION_GROUP_LOCATION_ALWAYS:
+            case PermissionConstants.PERMISSION_GROUP_LOCATION_WHEN_IN_USE:
+                return SERVICE_LOCATION;
+            case PermissionConstants.PERMISSION_GROUP_PHONE:
+                return SERVICE_PHONE;
+            default:
+                return SERVICE_NONE;
+        }
+    }
+
+    @PermissionConstants.ServiceStatus
+    private int determineServiceStatus(int service, Context context) {
+        switch (service) {
+            case SERVICE_LOCATION:
+                return getLocationServiceStatus(context);
+            case SERVICE_PHONE: {
+                final long startNanos = PluginDiagnostics.start();
+                final int serviceStatus = getPhoneServiceStatus(context);
+                PluginDiagnostics.recordBinderCall(PluginDiagnostics.BINDER_TELEPHONY_SERVICE, startNanos);
+                return serviceStatus;
+            }
+            default:
+                return PermissionConstants.SERVICE_STATUS_NOT_APPLICABLE;
+        }
+    }
+
+    @PermissionConstants.ServiceStatus
+    private static int getPhoneServiceStatus(Context context) {
+        final PackageManager packageManager = context.getPackageManager();
+        if (!packageManager.hasSystemFeature(PackageManager.FEATURE_TELEPHONY)) {
+            return PermissionConstants.SERVICE_STATUS_NOT_APPLICABLE;
+        }
+
+        final TelephonyManager telephonyManager = (TelephonyManager) context.getSystemService(Context.TELEPHONY_SERVICE);
+        if (telephonyManager == null || telephonyManager.getPhoneType() == TelephonyManager.PHONE_TYPE_NONE) {
+            return PermissionConstants.SERVICE_STATUS_NOT_APPLICABLE;
+        }
+
+        final Intent callIntent = new Intent(Intent.ACTION_CALL);
+        callIntent.setData(Uri.parse("tel:123123"));
+        final List<ResolveInfo> callAppsList = packageManager.queryIntentActivities(callIntent, 0);
+        if (callAppsList == null || callAppsList.isEmpty()) {
+            return PermissionConstants.SERVICE_STATUS_NOT_APPLICABLE;
+        }
+
+        if (telephonyManager.getSimState() != TelephonyManager.SIM_STATE_READY) {
+            return PermissionConstants.SERVICE_STATUS_DISABLED;
+        }
+
+        return PermissionConstants.SERVICE_STATUS_ENABLED;
+    }
+
+    @PermissionConstants.ServiceStatus
+    private int getLocationServiceStatus(Context context) {
+        final int serviceStatus = locationServiceStatus;
+        if (serviceStatus != SERVICE_STATUS_UNKNOWN) {
+            return serviceStatus;
+        }
+
+        synchronized (this) {
+            if (locationServiceStatus != SERVICE_STATUS_UNKNOWN) {
+                return locationServiceStatus;
+            }
+
+            // Register before reading the current state so no change can be missed in between.
+            final boolean tracking = registerLocationProvidersReceiver(context);
+            final int currentStatus = toServiceStatus(isLocationServiceEnabled(context));
+            if (tracking) {
+                locationServiceStatus = currentStatus;
+            }
+            return currentStatus;
+        }
+    }
+
+    private boolean registerLocationProvidersReceiver(Context context) {
+        final Context applicationContext = context.getApplicationContext() != null
+                ? context.getApplicationContext()
+                : context;
+
+        final BroadcastReceiver receiver = new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                onLocationProvidersChanged(context);
+            }
+        };
+
+        try {
+            applicationContext.registerReceiver(
+                    receiver,
+                    new IntentFilter(LocationManager.PROVIDERS_CHANGED_ACTION));
+        } catch (Exception ex) {
+            // Without the receiver the cached state could go stale, keep querying the system.
+            Log.d(PermissionConstants.LOG_TAG, "Unable to listen for location provider changes: ", ex);
+            return false;
+        }
+
+        receiverContext = applicationContext;
+        locationProvidersReceiver = receiver;
+        return true;
+    }
+
+    private void onLocationProvidersChanged(Context context) {
+        final int serviceStatus = toServiceStatus(isLocationServiceEnabled(context));
+
+        synchronized (this) {
+            if (locationProvidersReceiver == null || locationServiceStatus == serviceStatus) {
+                return;
+            }
+
+            locationServiceStatus = serviceStatus;
+        }
+
+        for (ServiceStatusListener listener : serviceStatusListeners) {
+            listener.onServiceStatusChanged();
+        }
+    }
+
+    @PermissionConstants.ServiceStatus
+    private static int toServiceStatus(boolean enabled) {
+        return enabled
+                ? PermissionConstants.SERVICE_STATUS_ENABLED
+                : PermissionConstants.SERVICE_STATUS_DISABLED;
     }
 
     private boolean isLocationServiceEnabled(Context context) {
+        final long startNanos = PluginDiagnostics.start();
+        final boolean enabled = queryLocationServiceEnabled(context);
+        PluginDiagnostics.recordBinderCall(PluginDiagnostics.BINDER_LOCATION_SERVICE, startNanos);
+        return enabled;
+    }
+
+    private static boolean queryLocationServiceEnabled(Context context) {
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.P) {
             final LocationManager locationManager = context.getSystemService(LocationManager.class);
             if (locationManager == null) {
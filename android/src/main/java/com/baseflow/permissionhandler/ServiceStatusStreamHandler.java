@@ -0,0 +1,90 @@
+package com.baseflow.permissionhandler;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+import io.flutter.plugin.common.EventChannel;
+
+/**
+ * Streams service status changes to Dart.
+ *
+ * <p>The listener supplies the permission groups whose service it is interested in when
+ * subscribing. Their service statuses are sent once when the subscription starts, afterwards only
+ * the groups whose service status changed are sent, as a map of permission group to service
+ * status. Changes are driven by the service state cached in {@link ServiceManager}.
+ */
+final class ServiceStatusStreamHandler implements EventChannel.StreamHandler {
+    private final Context applicationContext;
+    private final ServiceManager serviceManager;
+    private final Executor backgroundExecutor;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final ServiceManager.ServiceStatusListener serviceStatusListener = this::onServiceStatusChanged;
+
+    @Nullable
+    private volatile StatusSubscription subscription;
+
+    ServiceStatusStreamHandler(
+            Context applicationContext,
+            ServiceManager serviceManager,
+            Executor backgroundExecutor) {
+        this.applicationContext = applicationContext;
+        this.serviceManager = serviceManager;
+        this.backgroundExecutor = backgroundExecutor;
+    }
+
+    @Override
+    public void onListen(Object arguments, EventChannel.EventSink events) {
+        @SuppressWarnings("unchecked")
+        final List<Integer> permissions = (List<Integer>) arguments;
+
+        subscription = new StatusSubscription(PermissionStatusTable.toGroupArray(permissions), events);
+        serviceManager.addServiceStatusListener(serviceStatusListener);
+        onServiceStatusChanged();
+    }
+
+    @Override
+    public void onCancel(Object arguments) {
+        serviceManager.removeServiceStatusListener(serviceStatusListener);
+        subscription = null;
+    }
+
+    private void onServiceStatusChanged() {
+        final StatusSubscription subscription = this.subscription;
+        if (subscription == null) {
+            return;
+        }
+
+        backgroundExecutor.execute(() -> {
+            final Map<Integer, Integer> changes = new HashMap<>();
+            try {
+                for (int permission : subscription.permissions) {
+                    serviceManager.checkServiceStatus(
+                            permission,
+                            applicationContext,
+                            (int serviceStatus) -> {
+                                if (subscription.updateStatus(permission, serviceStatus)) {
+                                    changes.put(permission, serviceStatus);
+                                }
+                            },
+                            (String errorCode, String errorDescription) ->
+                                    Log.d(PermissionConstants.LOG_TAG, "Unable to evaluate subscribed services: " + errorDescription));
+                }
+            } catch (RuntimeException e) {
+                Log.d(PermissionConstants.LOG_TAG, "Unable to evaluate subscribed services: ", e);
+            }
+
+            if (!changes.isEmpty()) {
+                mainHandler.post(() -> subscription.send(this.subscription, changes));
+            }
+        });
+    }
+}
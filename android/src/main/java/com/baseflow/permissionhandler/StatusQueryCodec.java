@@ -0,0 +1,116 @@
+package com.baseflow.permissionhandler;
+
+import androidx.annotation.Nullable;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Fixed binary layout used by the status query message channel.
+ *
+ * <p>A query is encoded as one opcode byte, one byte holding the number of permission groups and
+ * one byte per permission group. A reply repeats the opcode and the count, followed by one status
+ * byte per queried group in query order. A status of {@link #STATUS_UNAVAILABLE} means the status
+ * could not be determined for that group.
+ */
+final class StatusQueryCodec {
+    static final byte OPCODE_PERMISSION_STATUS = 1;
+    static final byte OPCODE_SERVICE_STATUS = 2;
+
+    static final int STATUS_UNAVAILABLE = 0xFF;
+
+    private static final int HEADER_SIZE = 2;
+    private static final int MAX_COUNT = 0xFF;
+
+    private StatusQueryCodec() {
+    }
+
+    static final class Query {
+        final byte opcode;
+        final int[] permissions;
+
+        Query(byte opcode, int[] permissions) {
+            this.opcode = opcode;
+            this.permissions = permissions;
+        }
+    }
+
+    static ByteBuffer encodeQuery(byte opcode, int[] permissions) {
+        if (permissions.length > MAX_COUNT) {
+            throw new IllegalArgumentException("A query can contain at most " + MAX_COUNT + " permission groups.");
+        }
+
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(HEADER_SIZE + permissions.length);
+        buffer.put(opcode);
+        buffer.put((byte) permissions.length);
+        for (int permission : permissions) {
+            buffer.put((byte) permission);
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Decodes a query, returns {@code null} when the message is not a well formed query.
+     */
+    @Nullable
+    static Query decodeQuery(@Nullable ByteBuffer message) {
+        if (message == null || message.remaining() < HEADER_SIZE) {
+            return null;
+        }
+
+        final byte opcode = message.get();
+        final int count = message.get() & 0xFF;
+        if ((opcode != OPCODE_PERMISSION_STATUS && opcode != OPCODE_SERVICE_STATUS)
+                || message.remaining() != count) {
+            return null;
+        }
+
+        final int[] permissions = new int[count];
+        for (int i = 0; i < count; i++) {
+            permissions[i] = message.get() & 0xFF;
+        }
+        return new Query(opcode, permissions);
+    }
+
+    /**
+     * Encodes the reply to a query, taking the status of each queried group from the supplied
+     * table. Groups missing from the table are reported as {@link #STATUS_UNAVAILABLE}.
+     */
+    static ByteBuffer encodeReply(Query query, @Nullable PermissionStatusTable statuses) {
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(HEADER_SIZE + query.permissions.length);
+        buffer.put(query.opcode);
+        buffer.put((byte) query.permissions.length);
+        for (int permission : query.permissions) {
+            final boolean available = statuses != null
+                    && PermissionStatusTable.isValidGroup(permission)
+                    && statuses.contains(permission);
+            buffer.put((byte) (available ? statuses.get(permission) : STATUS_UNAVAILABLE));
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Decodes a reply into one status per queried group, returns {@code null} when the message is
+     * not a well formed reply.
+     */
+    @Nullable
+    static int[] decodeReply(@Nullable ByteBuffer message) {
+        if (message == null || message.remaining() < HEADER_SIZE) {
+            return null;
+        }
+
+        final byte opcode = message.get();
+        final int count = message.get() & 0xFF;
+        if ((opcode != OPCODE_PERMISSION_STATUS && opcode != OPCODE_SERVICE_STATUS)
+                || message.remaining() != count) {
+            return null;
+        }
+
+        final int[] statuses = new int[count];
+        for (int i = 0; i < count; i++) {
+            statuses[i] = message.get() & 0xFF;
+        }
+        return statuses;
+    }
+}
@@ -0,0 +1,94 @@
+package com.baseflow.permissionhandler;
+
+import android.app.Activity;
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.Executor;
+
+import io.flutter.plugin.common.BasicMessageChannel;
+
+/**
+ * Answers permission and service status queries encoded with {@link StatusQueryCodec}.
+ *
+ * <p>This is a compact alternative to the {@code checkPermissionStatuses} and
+ * {@code checkServiceStatuses} method calls for callers that query statuses at a high frequency.
+ */
+final class StatusQueryMessageHandler implements BasicMessageChannel.MessageHandler<ByteBuffer> {
+    private final Context applicationContext;
+    private final PermissionManager permissionManager;
+    private final ServiceManager serviceManager;
+    private final Executor backgroundExecutor;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    @Nullable
+    private volatile Activity activity;
+
+    StatusQueryMessageHandler(
+            Context applicationContext,
+            PermissionManager permissionManager,
+            ServiceManager serviceManager,
+            Executor backgroundExecutor) {
+        this.applicationContext = applicationContext;
+        this.permissionManager = permissionManager;
+        this.serviceManager = serviceManager;
+        this.backgroundExecutor = backgroundExecutor;
+    }
+
+    void setActivity(@Nullable Activity activity) {
+        this.activity = activity;
+    }
+
+    @Override
+    public void onMessage(@Nullable ByteBuffer message, final BasicMessageChannel.Reply<ByteBuffer> reply) {
+        final StatusQueryCodec.Query query = StatusQueryCodec.decodeQuery(message);
+        if (query == null) {
+            Log.d(PermissionConstants.LOG_TAG, "Ignoring malformed status query.");
+            reply.reply(null);
+            return;
+        }
+
+        final Activity activity = this.activity;
+        backgroundExecutor.execute(() -> {
+            ByteBuffer encodedReply;
+            try {
+                encodedReply = handleQuery(query, activity);
+            } catch (RuntimeException e) {
+                Log.d(PermissionConstants.LOG_TAG, "Unable to answer status query: ", e);
+                encodedReply = null;
+            }
+
+            final ByteBuffer finalReply = encodedReply;
+            mainHandler.post(() -> reply.reply(finalReply));
+        });
+    }
+
+    private ByteBuffer handleQuery(StatusQueryCodec.Query query, @Nullable Activity activity) {
+        final PermissionStatusTable[] statuses = new PermissionStatusTable[1];
+        final int[] permissions = PermissionStatusTable.retainValidGroups(query.permissions);
+        final ErrorCallback errorCallback = (String errorCode, String errorDescription) ->
+                Log.d(PermissionConstants.LOG_TAG, "Unable to answer status query: " + errorDescription);
+
+        if (query.opcode == StatusQueryCodec.OPCODE_PERMISSION_STATUS) {
+            permissionManager.checkPermissionStatuses(
+                    permissions,
+                    applicationContext,
+                    activity,
+                    (PermissionStatusTable permissionStatuses) -> statuses[0] = permissionStatuses,
+                    errorCallback);
+        } else {
+            serviceManager.checkServiceStatuses(
+                    permissions,
+                    applicationContext,
+                    (PermissionStatusTable serviceStatuses) -> statuses[0] = serviceStatuses,
+                    errorCallback);
+        }
+
+        return StatusQueryCodec.encodeReply(query, statuses[0]);
+    }
+}
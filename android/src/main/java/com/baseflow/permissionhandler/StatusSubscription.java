@@ -0,0 +1,59 @@
+package com.baseflow.permissionhandler;
+
+import androidx.annotation.Nullable;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import io.flutter.plugin.common.EventChannel;
+
+/**
+ * A listener subscribed to the statuses of a set of permission groups, remembering the last status
+ * sent for each group so only changes are streamed.
+ *
+ * <p>Used for both permission and service statuses, which share the same representation.
+ */
+final class StatusSubscription {
+    final int[] permissions;
+    private final EventChannel.EventSink events;
+
+    // Only accessed on the background executor.
+    private final PermissionStatusTable lastStatuses = new PermissionStatusTable();
+
+    StatusSubscription(int[] permissions, EventChannel.EventSink events) {
+        this.permissions = permissions;
+        this.events = events;
+    }
+
+    /**
+     * Records the status of a single group, returns whether it differs from the last one sent.
+     */
+    boolean updateStatus(@PermissionConstants.PermissionGroup int permission, int status) {
+        if (lastStatuses.contains(permission) && lastStatuses.get(permission) == status) {
+            return false;
+        }
+
+        lastStatuses.put(permission, status);
+        return true;
+    }
+
+    /**
+     * Records the statuses of the subscribed groups, returns the ones that changed.
+     */
+    Map<Integer, Integer> updateStatuses(PermissionStatusTable statuses) {
+        final Map<Integer, Integer> changes = new HashMap<>();
+        for (int permission : permissions) {
+            if (statuses.contains(permission) && updateStatus(permission, statuses.get(permission))) {
+                changes.put(permission, statuses.get(permission));
+            }
+        }
+        return changes;
+    }
+
+    void send(@Nullable StatusSubscription current, Map<Integer, Integer> changes) {
+        // The listener may have cancelled or re-subscribed while the statuses were evaluated.
+        if (current == this) {
+            events.success(changes);
+        }
+    }
+}
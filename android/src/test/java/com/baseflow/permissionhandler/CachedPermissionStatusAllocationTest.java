@@ -0,0 +1,136 @@
+package com.baseflow.permissionhandler;
+
+import android.app.Activity;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+
+import io.flutter.plugin.common.MethodCall;
+import io.flutter.plugin.common.MethodChannel;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assume.assumeTrue;
+import static org.mockito.Mockito.mock;
+
+public class CachedPermissionStatusAllocationTest {
+    private static final int WARM_UP_CALLS = 20_000;
+    private static final int MEASURED_CALLS = 10_000;
+
+    // A group that needs no Android permission, so evaluating it touches no platform service.
+    private static final int PERMISSION = PermissionConstants.PERMISSION_GROUP_PHOTOS;
+
+    private com.sun.management.ThreadMXBean threadBean;
+    private Activity activity;
+    private PermissionManager permissionManager;
+
+    @Before
+    public void setUp() {
+        assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+        threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assumeTrue(threadBean.isThreadAllocatedMemorySupported());
+        threadBean.setThreadAllocatedMemoryEnabled(true);
+
+        activity = mock(Activity.class);
+        permissionManager = new PermissionManager(mock(DeadlineScheduler.class));
+        permissionManager.checkPermissionStatus(
+                PERMISSION,
+                activity,
+                activity,
+                (int permissionStatus) -> { },
+                (String errorCode, String errorDescription) -> { });
+    }
+
+    @Test
+    public void getCachedPermissionStatus_warm_doesNotAllocate() {
+        assertNotEquals(PermissionStatusCache.NO_STATUS, permissionManager.getCachedPermissionStatus(PERMISSION, activity));
+
+        for (int i = 0; i < WARM_UP_CALLS; i++) {
+            permissionManager.getCachedPermissionStatus(PERMISSION, activity);
+        }
+
+        final long overhead = measureOverhead();
+        final long start = allocatedBytes();
+        for (int i = 0; i < MEASURED_CALLS; i++) {
+            permissionManager.getCachedPermissionStatus(PERMISSION, activity);
+        }
+        final long allocated = allocatedBytes() - start;
+
+        assertEquals(0, perCall(allocated - overhead));
+    }
+
+    @Test
+    public void checkPermissionStatus_warm_doesNotAllocate() {
+        final MethodCallHandlerImpl methodCallHandler = new MethodCallHandlerImpl(
+                activity,
+                new AppSettingsManager(),
+                permissionManager,
+                new ServiceManager(),
+                new PermissionSnapshotStore(),
+                (Runnable command) -> {
+                    throw new AssertionError("A cached status must be answered on the calling thread");
+                });
+        methodCallHandler.setActivity(activity);
+
+        final MethodCall call = new MethodCall("checkPermissionStatus", PERMISSION);
+        final RecordingResult result = new RecordingResult();
+
+        for (int i = 0; i < WARM_UP_CALLS; i++) {
+            methodCallHandler.onMethodCall(call, result);
+        }
+
+        final long overhead = measureOverhead();
+        final long start = allocatedBytes();
+        for (int i = 0; i < MEASURED_CALLS; i++) {
+            methodCallHandler.onMethodCall(call, result);
+        }
+        final long allocated = allocatedBytes() - start;
+
+        assertEquals(0, perCall(allocated - overhead));
+        assertEquals(WARM_UP_CALLS + MEASURED_CALLS, result.successes);
+        assertEquals(PermissionConstants.PERMISSION_STATUS_GRANTED, result.lastResult);
+    }
+
+    /**
+     * Spreads the measured bytes over the calls. The runtime may allocate a few bytes once, for
+     * example while it swaps in compiled code, a single allocation per call adds at least 16.
+     */
+    private static long perCall(long allocatedBytes) {
+        return allocatedBytes / MEASURED_CALLS;
+    }
+
+    private long allocatedBytes() {
+        return threadBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * Returns the bytes that reading the allocation counter itself accounts for between two reads.
+     */
+    private long measureOverhead() {
+        final long start = allocatedBytes();
+        return allocatedBytes() - start;
+    }
+
+    private static final class RecordingResult implements MethodChannel.Result {
+        int successes;
+        Object lastResult;
+
+        @Override
+        public void success(Object result) {
+            successes++;
+            lastResult = result;
+        }
+
+        @Override
+        public void error(String errorCode, String errorMessage, Object errorDetails) {
+            throw new AssertionError(errorCode + ": " + errorMessage);
+        }
+
+        @Override
+        public void notImplemented() {
+            throw new AssertionError("notImplemented");
+        }
+    }
+}
@@ -0,0 +1,340 @@
+package com.baseflow.permissionhandler;
+
+import android.Manifest;
+import android.app.Activity;
+import android.content.SharedPreferences;
+import android.content.pm.ApplicationInfo;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.os.Build;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.RETURNS_SELF;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class PermissionManagerDeadlineTest {
+    private static final long DEADLINE_MILLIS = 1000;
+    private static final int[] CAMERA = {PermissionConstants.PERMISSION_GROUP_CAMERA};
+
+    private FakeDeadlineScheduler scheduler;
+    private PermissionManager permissionManager;
+    private int invalidations;
+    private SharedPreferences preferences;
+
+    @Before
+    public void setUp() {
+        ManifestNameRegistry.setSdkVersion(Build.VERSION_CODES.M);
+        RequestHistoryStore.reset();
+
+        preferences = mock(SharedPreferences.class);
+        when(preferences.edit()).thenReturn(mock(SharedPreferences.Editor.class, RETURNS_SELF));
+
+        scheduler = new FakeDeadlineScheduler();
+        permissionManager = new PermissionManager(scheduler);
+        permissionManager.setRequestDeadlineMillis(DEADLINE_MILLIS);
+        permissionManager.addStatusCacheListener(() -> invalidations++);
+    }
+
+    @After
+    public void tearDown() {
+        ManifestNameRegistry.setSdkVersion(Build.VERSION.SDK_INT);
+        RequestHistoryStore.reset();
+    }
+
+    @Test
+    public void deadline_abandonsDialogWithCurrentStatus() throws Exception {
+        final Activity activity = newActivity();
+        final List<PermissionStatusTable> results = new ArrayList<>();
+        permissionManager.requestPermissions(CAMERA, activity, results::add, this::failOnError);
+
+        // The deadline of the dialog on screen.
+        assertEquals(1, scheduler.pendingTasks());
+
+        // The user answered, but the result never arrives.
+        when(activity.checkPermission(eq(Manifest.permission.CAMERA), anyInt(), anyInt()))
+                .thenReturn(PackageManager.PERMISSION_GRANTED);
+
+        scheduler.advanceBy(DEADLINE_MILLIS - 1);
+        assertTrue(results.isEmpty());
+
+        scheduler.advanceBy(1);
+        assertEquals(1, results.size());
+        assertEquals(
+                PermissionConstants.PERMISSION_STATUS_GRANTED,
+                results.get(0).get(PermissionConstants.PERMISSION_GROUP_CAMERA));
+        assertEquals(0, scheduler.pendingTasks());
+    }
+
+    @Test
+    public void deadline_neverAnswered_staysNotDetermined() throws Exception {
+        final Activity activity = newActivity();
+        final List<PermissionStatusTable> results = new ArrayList<>();
+        permissionManager.requestPermissions(CAMERA, activity, results::add, this::failOnError);
+
+        scheduler.advanceBy(DEADLINE_MILLIS);
+
+        assertEquals(1, results.size());
+        assertEquals(
+                PermissionConstants.PERMISSION_STATUS_NOT_DETERMINED,
+                results.get(0).get(PermissionConstants.PERMISSION_GROUP_CAMERA));
+        verify(preferences, never()).edit();
+
+        final List<Integer> statuses = new ArrayList<>();
+        permissionManager.checkPermissionStatus(
+                PermissionConstants.PERMISSION_GROUP_CAMERA,
+                activity,
+                activity,
+                statuses::add,
+                this::failOnError);
+        assertEquals(PermissionConstants.PERMISSION_STATUS_NOT_DETERMINED, (int) statuses.get(0));
+    }
+
+    @Test
+    public void deadline_letsNextRequestShowItsDialog() throws Exception {
+        final Activity first = newActivity();
+        final Activity second = newActivity();
+        final List<PermissionStatusTable> firstResults = new ArrayList<>();
+        final List<PermissionStatusTable> secondResults = new ArrayList<>();
+        permissionManager.requestPermissions(CAMERA, first, firstResults::add, this::failOnError);
+        permissionManager.requestPermissions(CAMERA, second, secondResults::add, this::failOnError);
+
+        assertEquals(1, scheduler.pendingTasks());
+
+        scheduler.advanceBy(DEADLINE_MILLIS);
+
+        assertEquals(1, firstResults.size());
+        assertTrue(secondResults.isEmpty());
+        assertEquals(1, scheduler.pendingTasks());
+
+        final boolean handled = permissionManager.onRequestPermissionsResult(
+                second,
+                PermissionConstants.PERMISSION_CODE + 1,
+                new String[] {Manifest.permission.CAMERA},
+                new int[] {PackageManager.PERMISSION_GRANTED});
+
+        assertTrue(handled);
+        assertEquals(1, secondResults.size());
+    }
+
+    @Test
+    public void detach_abandonsDialogOfFinishingActivity() throws Exception {
+        final Activity activity = newActivity();
+        final List<PermissionStatusTable> results = new ArrayList<>();
+        permissionManager.requestPermissions(CAMERA, activity, results::add, this::failOnError);
+
+        when(activity.isFinishing()).thenReturn(true);
+        permissionManager.onActivityDetached(activity);
+
+        assertEquals(1, results.size());
+        assertTrue(results.get(0).contains(PermissionConstants.PERMISSION_GROUP_CAMERA));
+        assertEquals(0, scheduler.pendingTasks());
+    }
+
+    @Test
+    public void detach_keepsDialogOfActivityThatStays() throws Exception {
+        final Activity activity = newActivity();
+        final List<PermissionStatusTable> results = new ArrayList<>();
+        permissionManager.requestPermissions(CAMERA, activity, results::add, this::failOnError);
+
+        permissionManager.onActivityDetached(activity);
+
+        assertTrue(results.isEmpty());
+        assertEquals(1, scheduler.pendingTasks());
+    }
+
+    @Test
+    public void lateResult_afterAbandonment_invalidatesWithoutCompletingAgain() throws Exception {
+        final Activity activity = newActivity();
+        final List<PermissionStatusTable> results = new ArrayList<>();
+        permissionManager.requestPermissions(CAMERA, activity, results::add, this::failOnError);
+        scheduler.advanceBy(DEADLINE_MILLIS);
+        assertEquals(1, results.size());
+
+        final int invalidationsBefore = invalidations;
+        final boolean handled = permissionManager.onRequestPermissionsResult(
+                activity,
+                PermissionConstants.PERMISSION_CODE,
+                new String[] {Manifest.permission.CAMERA},
+                new int[] {PackageManager.PERMISSION_GRANTED});
+
+        assertFalse(handled);
+        assertEquals(invalidationsBefore + 1, invalidations);
+        assertEquals(1, results.size());
+    }
+
+    @Test
+    public void foreignResult_withUnissuedCode_isIgnored() throws Exception {
+        final Activity activity = newActivity();
+        final List<PermissionStatusTable> results = new ArrayList<>();
+        permissionManager.requestPermissions(CAMERA, activity, results::add, this::failOnError);
+
+        final int invalidationsBefore = invalidations;
+        final boolean handled = permissionManager.onRequestPermissionsResult(
+                activity,
+                PermissionConstants.PERMISSION_CODE + 1,
+                new String[] {Manifest.permission.CAMERA},
+                new int[] {PackageManager.PERMISSION_GRANTED});
+
+        assertFalse(handled);
+        assertEquals(invalidationsBefore, invalidations);
+        assertTrue(results.isEmpty());
+    }
+
+    @Test
+    public void foreignResult_withOngoingCode_isIgnored() throws Exception {
+        final Activity activity = newActivity();
+        final List<PermissionStatusTable> results = new ArrayList<>();
+        permissionManager.requestPermissions(CAMERA, activity, results::add, this::failOnError);
+
+        final boolean handled = permissionManager.onRequestPermissionsResult(
+                activity,
+                PermissionConstants.PERMISSION_CODE,
+                new String[] {Manifest.permission.READ_PHONE_STATE},
+                new int[] {PackageManager.PERMISSION_GRANTED});
+
+        assertFalse(handled);
+        assertTrue(results.isEmpty());
+        assertEquals(1, scheduler.pendingTasks());
+    }
+
+    @Test
+    public void interruptedResult_reportsCurrentStatusOfEveryGroup() throws Exception {
+        final Activity activity = newActivity();
+        final List<PermissionStatusTable> results = new ArrayList<>();
+        permissionManager.requestPermissions(CAMERA, activity, results::add, this::failOnError);
+
+        final boolean handled = permissionManager.onRequestPermissionsResult(
+                activity,
+                PermissionConstants.PERMISSION_CODE,
+                new String[0],
+                new int[0]);
+
+        assertTrue(handled);
+        assertEquals(1, results.size());
+        assertEquals(
+                PermissionConstants.PERMISSION_STATUS_NOT_DETERMINED,
+                results.get(0).get(PermissionConstants.PERMISSION_GROUP_CAMERA));
+        assertEquals(0, scheduler.pendingTasks());
+    }
+
+    @Test
+    public void queuedRequest_ofGoneActivity_isAbandonedWithoutDialog() throws Exception {
+        final Activity first = newActivity();
+        final Activity second = newActivity();
+        final List<PermissionStatusTable> firstResults = new ArrayList<>();
+        final List<PermissionStatusTable> secondResults = new ArrayList<>();
+        permissionManager.requestPermissions(CAMERA, first, firstResults::add, this::failOnError);
+        permissionManager.requestPermissions(CAMERA, second, secondResults::add, this::failOnError);
+
+        when(second.isFinishing()).thenReturn(true);
+        permissionManager.onRequestPermissionsResult(
+                first,
+                PermissionConstants.PERMISSION_CODE,
+                new String[] {Manifest.permission.CAMERA},
+                new int[] {PackageManager.PERMISSION_DENIED});
+
+        assertEquals(1, firstResults.size());
+        assertEquals(1, secondResults.size());
+        assertEquals(0, scheduler.pendingTasks());
+    }
+
+    private void failOnError(String errorCode, String errorDescription) {
+        throw new AssertionError(errorCode + ": " + errorDescription);
+    }
+
+    private Activity newActivity() throws Exception {
+        final ApplicationInfo applicationInfo = new ApplicationInfo();
+        applicationInfo.targetSdkVersion = Build.VERSION_CODES.M;
+        final PackageInfo packageInfo = new PackageInfo();
+        packageInfo.requestedPermissions = new String[] {Manifest.permission.CAMERA};
+        packageInfo.applicationInfo = applicationInfo;
+
+        final PackageManager packageManager = mock(PackageManager.class);
+        when(packageManager.getPackageInfo(anyString(), anyInt())).thenReturn(packageInfo);
+
+        final Activity activity = mock(Activity.class);
+        when(activity.getPackageName()).thenReturn("com.baseflow.permissionhandler.test");
+        when(activity.getPackageManager()).thenReturn(packageManager);
+        when(activity.getSharedPreferences(anyString(), anyInt())).thenReturn(preferences);
+        when(activity.checkPermission(anyString(), anyInt(), anyInt())).thenReturn(PackageManager.PERMISSION_DENIED);
+        return activity;
+    }
+
+    private static final class FakeDeadlineScheduler implements DeadlineScheduler {
+        private final List<ScheduledTask> tasks = new ArrayList<>();
+        private long uptimeMillis;
+
+        @Override
+        public long uptimeMillis() {
+            return uptimeMillis;
+        }
+
+        @Override
+        public void schedule(Runnable task, long delayMillis) {
+            tasks.add(new ScheduledTask(task, uptimeMillis + delayMillis));
+        }
+
+        @Override
+        public void cancel(Runnable task) {
+            final Iterator<ScheduledTask> iterator = tasks.iterator();
+            while (iterator.hasNext()) {
+                if (iterator.next().task == task) {
+                    iterator.remove();
+                }
+            }
+        }
+
+        int pendingTasks() {
+            return tasks.size();
+        }
+
+        /**
+         * Moves the clock forward and runs the tasks that became due, in the order they are due.
+         */
+        void advanceBy(long millis) {
+            uptimeMillis += millis;
+
+            ScheduledTask next;
+            while ((next = nextDueTask()) != null) {
+                tasks.remove(next);
+                next.task.run();
+            }
+        }
+
+        private ScheduledTask nextDueTask() {
+            ScheduledTask next = null;
+            for (ScheduledTask task : tasks) {
+                if (task.uptimeMillis <= uptimeMillis && (next == null || task.uptimeMillis < next.uptimeMillis)) {
+                    next = task;
+                }
+            }
+            return next;
+        }
+    }
+
+    private static final class ScheduledTask {
+        final Runnable task;
+        final long uptimeMillis;
+
+        ScheduledTask(Runnable task, long uptimeMillis) {
+            this.task = task;
+            this.uptimeMillis = uptimeMillis;
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package com.baseflow.permissionhandler;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class StatusQueryCodecTest {
+    @Test
+    public void query_roundTrips() {
+        final int[] permissions = {
+                PermissionConstants.PERMISSION_GROUP_CAMERA,
+                PermissionConstants.PERMISSION_GROUP_LOCATION,
+                PermissionConstants.PERMISSION_GROUP_NOTIFICATION,
+        };
+
+        final StatusQueryCodec.Query query = StatusQueryCodec.decodeQuery(
+                StatusQueryCodec.encodeQuery(StatusQueryCodec.OPCODE_PERMISSION_STATUS, permissions));
+
+        assertNotNull(query);
+        assertEquals(StatusQueryCodec.OPCODE_PERMISSION_STATUS, query.opcode);
+        assertArrayEquals(permissions, query.permissions);
+    }
+
+    @Test
+    public void emptyQuery_roundTrips() {
+        final StatusQueryCodec.Query query = StatusQueryCodec.decodeQuery(
+                StatusQueryCodec.encodeQuery(StatusQueryCodec.OPCODE_SERVICE_STATUS, new int[0]));
+
+        assertNotNull(query);
+        assertEquals(StatusQueryCodec.OPCODE_SERVICE_STATUS, query.opcode);
+        assertEquals(0, query.permissions.length);
+    }
+
+    @Test
+    public void reply_roundTripsInQueryOrder() {
+        final StatusQueryCodec.Query query = new StatusQueryCodec.Query(
+                StatusQueryCodec.OPCODE_PERMISSION_STATUS,
+                new int[] {
+                        PermissionConstants.PERMISSION_GROUP_PHONE,
+                        PermissionConstants.PERMISSION_GROUP_CAMERA,
+                });
+        final PermissionStatusTable statuses = new PermissionStatusTable();
+        statuses.put(PermissionConstants.PERMISSION_GROUP_CAMERA, PermissionConstants.PERMISSION_STATUS_GRANTED);
+        statuses.put(PermissionConstants.PERMISSION_GROUP_PHONE, PermissionConstants.PERMISSION_STATUS_NEWER_ASK_AGAIN);
+
+        final int[] decoded = StatusQueryCodec.decodeReply(StatusQueryCodec.encodeReply(query, statuses));
+
+        assertArrayEquals(
+                new int[] {
+                        PermissionConstants.PERMISSION_STATUS_NEWER_ASK_AGAIN,
+                        PermissionConstants.PERMISSION_STATUS_GRANTED,
+                },
+                decoded);
+    }
+
+    @Test
+    public void reply_marksMissingAndInvalidGroupsUnavailable() {
+        final StatusQueryCodec.Query query = new StatusQueryCodec.Query(
+                StatusQueryCodec.OPCODE_SERVICE_STATUS,
+                new int[] {
+                        PermissionConstants.PERMISSION_GROUP_LOCATION,
+                        PermissionConstants.PERMISSION_GROUP_PHONE,
+                        200,
+                });
+        final PermissionStatusTable statuses = new PermissionStatusTable();
+        statuses.put(PermissionConstants.PERMISSION_GROUP_LOCATION, PermissionConstants.SERVICE_STATUS_ENABLED);
+
+        final int[] decoded = StatusQueryCodec.decodeReply(StatusQueryCodec.encodeReply(query, statuses));
+
+        assertArrayEquals(
+                new int[] {
+                        PermissionConstants.SERVICE_STATUS_ENABLED,
+                        StatusQueryCodec.STATUS_UNAVAILABLE,
+                        StatusQueryCodec.STATUS_UNAVAILABLE,
+                },
+                decoded);
+    }
+
+    @Test
+    public void reply_withoutStatuses_isUnavailable() {
+        final StatusQueryCodec.Query query = new StatusQueryCodec.Query(
+                StatusQueryCodec.OPCODE_PERMISSION_STATUS,
+                new int[] {PermissionConstants.PERMISSION_GROUP_CAMERA});
+
+        final int[] decoded = StatusQueryCodec.decodeReply(StatusQueryCodec.encodeReply(query, null));
+
+        assertArrayEquals(new int[] {StatusQueryCodec.STATUS_UNAVAILABLE}, decoded);
+    }
+
+    @Test
+    public void decodeQuery_rejectsNullAndEmptyMessages() {
+        assertNull(StatusQueryCodec.decodeQuery(null));
+        assertNull(StatusQueryCodec.decodeQuery(ByteBuffer.allocate(0)));
+        assertNull(StatusQueryCodec.decodeQuery(ByteBuffer.wrap(new byte[] {StatusQueryCodec.OPCODE_PERMISSION_STATUS})));
+    }
+
+    @Test
+    public void decodeQuery_rejectsUnknownOpcode() {
+        assertNull(StatusQueryCodec.decodeQuery(ByteBuffer.wrap(new byte[] {3, 1, 1})));
+        assertNull(StatusQueryCodec.decodeQuery(ByteBuffer.wrap(new byte[] {0, 0})));
+    }
+
+    @Test
+    public void decodeQuery_rejectsWrongCount() {
+        assertNull(StatusQueryCodec.decodeQuery(ByteBuffer.wrap(
+                new byte[] {StatusQueryCodec.OPCODE_PERMISSION_STATUS, 2, 1})));
+        assertNull(StatusQueryCodec.decodeQuery(ByteBuffer.wrap(
+                new byte[] {StatusQueryCodec.OPCODE_PERMISSION_STATUS, 1, 1, 3})));
+    }
+
+    @Test
+    public void decodeQuery_readsGroupsAsUnsignedBytes() {
+        final StatusQueryCodec.Query query = StatusQueryCodec.decodeQuery(ByteBuffer.wrap(
+                new byte[] {StatusQueryCodec.OPCODE_PERMISSION_STATUS, 1, (byte) 0xC8}));
+
+        assertNotNull(query);
+        assertArrayEquals(new int[] {200}, query.permissions);
+    }
+
+    @Test
+    public void decodeReply_rejectsMalformedMessages() {
+        assertNull(StatusQueryCodec.decodeReply(null));
+        assertNull(StatusQueryCodec.decodeReply(ByteBuffer.allocate(0)));
+        assertNull(StatusQueryCodec.decodeReply(ByteBuffer.wrap(new byte[] {7, 1, 1})));
+        assertNull(StatusQueryCodec.decodeReply(ByteBuffer.wrap(
+                new byte[] {StatusQueryCodec.OPCODE_SERVICE_STATUS, 3, 1})));
+    }
+
+    @Test
+    public void decodeReply_readsUnavailableMarker() {
+        final int[] decoded = StatusQueryCodec.decodeReply(ByteBuffer.wrap(
+                new byte[] {StatusQueryCodec.OPCODE_PERMISSION_STATUS, 2, (byte) 0xFF, 1}));
+
+        assertArrayEquals(new int[] {StatusQueryCodec.STATUS_UNAVAILABLE, 1}, decoded);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void encodeQuery_rejectsTooManyGroups() {
+        StatusQueryCodec.encodeQuery(StatusQueryCodec.OPCODE_PERMISSION_STATUS, new int[256]);
+    }
+}